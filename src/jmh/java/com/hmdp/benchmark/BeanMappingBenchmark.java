@@ -0,0 +1,79 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比登录用户在UserDTO和redis hash之间转换的两种写法：
+ * hutool的BeanUtil.beanToMap/fillBeanWithMap（原来登录和拦截器里的写法），
+ * 以及现在UserServiceImpl.login和RefreshTokenInterceptor里的逐字段赋值
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BeanMappingBenchmark {
+
+    private UserDTO user;
+    private Map<Object, Object> userMap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        user = BenchmarkData.user();
+        userMap = new HashMap<>(directToMap());
+    }
+
+    @Benchmark
+    public Map<String, Object> hutoolBeanToMap() {
+        return BeanUtil.beanToMap(user, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+    }
+
+    @Benchmark
+    public Map<String, String> directToMap() {
+        Map<String, String> map = new HashMap<>(4);
+        map.put("id", user.getId().toString());
+        if (user.getNickName() != null) {
+            map.put("nickName", user.getNickName());
+        }
+        if (user.getIcon() != null) {
+            map.put("icon", user.getIcon());
+        }
+        return map;
+    }
+
+    @Benchmark
+    public UserDTO hutoolFillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+
+    @Benchmark
+    public UserDTO directFromMap() {
+        UserDTO userDTO = new UserDTO();
+        Object id = userMap.get("id");
+        userDTO.setId(id == null ? null : Long.valueOf(id.toString()));
+        userDTO.setNickName((String) userMap.get("nickName"));
+        userDTO.setIcon((String) userMap.get("icon"));
+        return userDTO;
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 对比CacheClient三种查询策略在命中、未命中、逻辑过期三种场景下的单次耗时。
+ * <ul>
+ *     <li>hit：缓存里有未过期的数据</li>
+ *     <li>miss：每次调用后把key删掉，下一次必然回源</li>
+ *     <li>stale：逻辑过期的数据，重建时过期时间写成0秒，始终保持过期；
+ *     穿透和互斥锁两种策略用的是真实TTL，过期就是未命中，所以这个场景下它们和miss相同</li>
+ * </ul>
+ * rttMicros模拟每次redis往返的网络耗时，为0时只比较客户端的序列化和锁开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheStrategyBenchmark {
+
+    private static final String PASS_THROUGH_KEY = "bench:shop:";
+    private static final String MUTEX_KEY = "bench:shop:mutex:";
+    private static final String LOGICAL_KEY = "bench:shop:logical:";
+    private static final Long ID = 1L;
+
+    @Param({"hit", "miss", "stale"})
+    public String scenario;
+
+    @Param({"0", "50"})
+    public long rttMicros;
+
+    private FakeRedisConnectionFactory redis;
+    private CacheClient cacheClient;
+    private Function<Long, Shop> dbFallback;
+    private boolean evictAfterQuery;
+    private long logicalTtl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        redis = new FakeRedisConnectionFactory(rttMicros);
+        cacheClient = new CacheClient(new StringRedisTemplate(redis), new CacheMetrics(new SimpleMeterRegistry()));
+        Shop shop = BenchmarkData.shop(ID);
+        dbFallback = id -> shop;
+        evictAfterQuery = "miss".equals(scenario) || "stale".equals(scenario);
+        // 逻辑过期的重建按0秒写回，数据一直处于过期状态
+        logicalTtl = "stale".equals(scenario) ? 0L : 30L;
+        cacheClient.set(PASS_THROUGH_KEY + ID, shop, 30L, TimeUnit.MINUTES);
+        cacheClient.set(MUTEX_KEY + ID, shop, 30L, TimeUnit.MINUTES);
+        cacheClient.setWithLogicExprie(LOGICAL_KEY + ID, shop, logicalTtl, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redis.clear();
+    }
+
+    @Benchmark
+    public Shop passThrough() {
+        Shop shop = cacheClient.queryWithPassThrough(PASS_THROUGH_KEY, ID, Shop.class, dbFallback, 30L, TimeUnit.MINUTES);
+        if (evictAfterQuery) {
+            redis.evict(PASS_THROUGH_KEY + ID);
+        }
+        return shop;
+    }
+
+    @Benchmark
+    public Shop mutex() {
+        Shop shop = cacheClient.queryWithMutex(MUTEX_KEY, ID, Shop.class, dbFallback, 30L, TimeUnit.MINUTES);
+        if (evictAfterQuery) {
+            redis.evict(MUTEX_KEY + ID);
+        }
+        return shop;
+    }
+
+    @Benchmark
+    public Shop logicalExpire() {
+        Shop shop = cacheClient.queryWithLogicalExpire(LOGICAL_KEY, ID, Shop.class, dbFallback, logicalTtl, TimeUnit.SECONDS);
+        // 逻辑过期的key不会被淘汰，miss场景表示没有预热
+        if ("miss".equals(scenario)) {
+            redis.evict(LOGICAL_KEY + ID);
+        }
+        return shop;
+    }
+}
@@ -0,0 +1,110 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比hutool JSONUtil和jackson对Shop、RedisData的序列化和反序列化耗时。
+ * 两种编解码各自读取自己写出的字符串，不比较格式是否互通；
+ * RedisData的反序列化和CacheClient的用法一致，需要把data再转换一次成Shop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private ObjectMapper objectMapper;
+    private Shop shop;
+    private RedisData redisData;
+    private String hutoolShopJson;
+    private String jacksonShopJson;
+    private String hutoolRedisDataJson;
+    private String jacksonRedisDataJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+        // 和spring boot默认的ObjectMapper配置保持一致，另外和hutool一样忽略null字段
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        shop = BenchmarkData.shop(1L);
+        redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        hutoolShopJson = JSONUtil.toJsonStr(shop);
+        jacksonShopJson = objectMapper.writeValueAsString(shop);
+        hutoolRedisDataJson = JSONUtil.toJsonStr(redisData);
+        jacksonRedisDataJson = objectMapper.writeValueAsString(redisData);
+    }
+
+    @Benchmark
+    public String hutoolWriteShop() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public String jacksonWriteShop() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(shop);
+    }
+
+    @Benchmark
+    public Shop hutoolReadShop() {
+        return JSONUtil.toBean(hutoolShopJson, Shop.class);
+    }
+
+    @Benchmark
+    public Shop jacksonReadShop() throws JsonProcessingException {
+        return objectMapper.readValue(jacksonShopJson, Shop.class);
+    }
+
+    @Benchmark
+    public String hutoolWriteRedisData() {
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    @Benchmark
+    public String jacksonWriteRedisData() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(redisData);
+    }
+
+    @Benchmark
+    public Shop hutoolReadRedisData() {
+        RedisData data = JSONUtil.toBean(hutoolRedisDataJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public Shop jacksonReadRedisData() throws JsonProcessingException {
+        // 先解析成树，data节点直接绑定到Shop，避免先转成Map再转换一次
+        JsonNode root = objectMapper.readTree(jacksonRedisDataJson);
+        return objectMapper.treeToValue(root.get("data"), Shop.class);
+    }
+}
@@ -0,0 +1,215 @@
+package com.hmdp.benchmark;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试用的内存版redis，只实现CacheClient用到的字符串命令（get/set/setEx/setNX/del/mGet）。
+ * 每条命令可以自旋等待一个固定的往返时间，用来模拟网络开销；没有实现的命令直接抛异常，避免测出错误的结果
+ */
+public class FakeRedisConnectionFactory implements RedisConnectionFactory {
+
+    private final ConcurrentHashMap<String, Entry> store = new ConcurrentHashMap<>();
+    private final long rttNanos;
+
+    public FakeRedisConnectionFactory(long rttMicros) {
+        this.rttNanos = TimeUnit.MICROSECONDS.toNanos(rttMicros);
+    }
+
+    /**
+     * 绕过客户端直接删除key，不计入往返时间
+     */
+    public void evict(String key) {
+        store.remove(key);
+    }
+
+    public void clear() {
+        store.clear();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisConnection.class}, new FakeConnection());
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException("cluster");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return false;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException("sentinel");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    private byte[] get(byte[] key) {
+        String k = key(key);
+        Entry entry = store.get(k);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            store.remove(k, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private boolean set(byte[] key, byte[] value, long ttlMillis, boolean ifAbsent) {
+        Entry entry = new Entry(value, ttlMillis <= 0 ? 0L : System.currentTimeMillis() + ttlMillis);
+        String k = key(key);
+        if (!ifAbsent) {
+            store.put(k, entry);
+            return true;
+        }
+        // 已过期的锁视为不存在
+        Entry old = store.putIfAbsent(k, entry);
+        if (old == null) {
+            return true;
+        }
+        return old.isExpired() && store.replace(k, old, entry);
+    }
+
+    private long del(byte[][] keys) {
+        long count = 0;
+        for (byte[] key : keys) {
+            if (store.remove(key(key)) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String key(byte[] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private void roundTrip() {
+        if (rttNanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + rttNanos;
+        while (System.nanoTime() < deadline) {
+            // 忙等，sleep的精度不够
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        private final long expireAt;
+
+        private Entry(byte[] value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return expireAt > 0 && expireAt < System.currentTimeMillis();
+        }
+    }
+
+    private final class FakeConnection implements InvocationHandler {
+        private boolean closed;
+        private boolean pipelined;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isPipelined":
+                    return pipelined;
+                case "isQueueing":
+                    return false;
+                case "getNativeConnection":
+                    return this;
+                case "openPipeline":
+                    pipelined = true;
+                    return null;
+                case "closePipeline":
+                    // 管道中的命令已经逐条执行，只在关闭时计一次往返
+                    pipelined = false;
+                    roundTrip();
+                    return Collections.emptyList();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeRedisConnection";
+                default:
+            }
+            Object result = execute(name, method, args);
+            if (!pipelined) {
+                roundTrip();
+            }
+            return pipelined ? null : result;
+        }
+
+        private Object execute(String name, Method method, Object[] args) {
+            int argc = args == null ? 0 : args.length;
+            switch (name + "/" + argc) {
+                case "get/1":
+                    return get((byte[]) args[0]);
+                case "set/2":
+                    return set((byte[]) args[0], (byte[]) args[1], 0L, false);
+                case "set/4":
+                    Expiration expiration = (Expiration) args[2];
+                    long ttl = expiration == null || expiration.isPersistent()
+                            ? 0L : expiration.getExpirationTimeInMilliseconds();
+                    return set((byte[]) args[0], (byte[]) args[1], ttl, args[3] == SetOption.SET_IF_ABSENT);
+                case "setEx/3":
+                    return set((byte[]) args[0], (byte[]) args[2], TimeUnit.SECONDS.toMillis((Long) args[1]), false);
+                case "pSetEx/3":
+                    return set((byte[]) args[0], (byte[]) args[2], (Long) args[1], false);
+                case "setNX/2":
+                    return set((byte[]) args[0], (byte[]) args[1], 0L, true);
+                case "del/1":
+                    return del((byte[][]) args[0]);
+                case "mGet/1":
+                    byte[][] keys = (byte[][]) args[0];
+                    List<byte[]> values = new ArrayList<>(keys.length);
+                    for (byte[] key : keys) {
+                        values.add(get(key));
+                    }
+                    return values;
+                default:
+                    throw new UnsupportedOperationException(method.toString());
+            }
+        }
+    }
+}
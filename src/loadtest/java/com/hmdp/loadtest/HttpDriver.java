@@ -0,0 +1,93 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 最简单的http客户端，依赖HttpURLConnection自带的keep-alive连接复用，返回值按Result解析
+ */
+final class HttpDriver {
+
+    private final String baseUrl;
+
+    HttpDriver(int port) {
+        this.baseUrl = "http://127.0.0.1:" + port;
+    }
+
+    Response get(String path, String token) throws IOException {
+        return send("GET", path, null, token);
+    }
+
+    Response post(String path, Object body, String token) throws IOException {
+        return send("POST", path, body == null ? null : JSONUtil.toJsonStr(body), token);
+    }
+
+    private Response send(String method, String path, String body, String token) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", token);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        // 读完响应体连接才能被复用
+        String text = in == null ? "" : StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        if (in != null) {
+            in.close();
+        }
+        return new Response(status, text);
+    }
+
+    static final class Response {
+        private final int status;
+        private final String text;
+
+        private Response(int status, String text) {
+            this.status = status;
+            this.text = text;
+        }
+
+        JSONObject json() {
+            return JSONUtil.parseObj(text);
+        }
+
+        boolean isSuccess() {
+            return status == 200 && JSONUtil.isJsonObj(text) && Boolean.TRUE.equals(json().getBool("success"));
+        }
+
+        /**
+         * 用于结果分类：成功返回ok，业务失败返回错误信息，http错误返回状态码
+         */
+        String outcome() {
+            if (status != 200) {
+                return "http " + status;
+            }
+            if (!JSONUtil.isJsonObj(text)) {
+                return "invalid body";
+            }
+            JSONObject json = json();
+            return Boolean.TRUE.equals(json.getBool("success")) ? "ok" : json.getStr("errorMsg");
+        }
+
+        Object data() {
+            return json().get("data");
+        }
+    }
+}
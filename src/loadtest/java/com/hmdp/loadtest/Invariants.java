@@ -0,0 +1,28 @@
+package com.hmdp.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 正确性约束的检查结果
+ */
+final class Invariants {
+
+    private final List<String> lines = new ArrayList<>();
+    private boolean passed = true;
+
+    void check(String name, boolean ok, String detail) {
+        passed &= ok;
+        lines.add((ok ? "[PASS] " : "[FAIL] ") + name + " (" + detail + ")");
+    }
+
+    boolean passed() {
+        return passed;
+    }
+
+    void print(PrintStream out) {
+        lines.forEach(out::println);
+        out.println(passed ? "all invariants hold" : "INVARIANTS VIOLATED");
+    }
+}
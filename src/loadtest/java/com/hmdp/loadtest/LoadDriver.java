@@ -0,0 +1,125 @@
+package com.hmdp.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程施压：所有线程就绪后同时开始，每个线程记录自己的延迟直方图，结束后合并
+ */
+final class LoadDriver {
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    /**
+     * 单次操作，返回结果分类，例如ok或者业务错误信息
+     */
+    interface Operation {
+        String call() throws Exception;
+    }
+
+    interface ItemOperation<T> {
+        String call(T item) throws Exception;
+    }
+
+    private LoadDriver() {
+    }
+
+    /**
+     * 在给定时间内循环执行操作
+     */
+    static ScenarioReport runFor(String name, int threads, long durationMillis, Operation operation)
+            throws InterruptedException {
+        return run(name, threads, () -> {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            return () -> System.nanoTime() < deadline ? operation : null;
+        });
+    }
+
+    /**
+     * 每个元素执行一次，元素由所有线程共同领取，适合每个用户只操作一次的场景
+     */
+    static <T> ScenarioReport runEach(String name, int threads, List<T> items, ItemOperation<T> operation)
+            throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        return run(name, threads, () -> () -> {
+            int i = next.getAndIncrement();
+            if (i >= items.size()) {
+                return null;
+            }
+            T item = items.get(i);
+            return () -> operation.call(item);
+        });
+    }
+
+    private interface Source {
+        Operation next();
+    }
+
+    private static ScenarioReport run(String name, int threads, Callable<Source> sourceFactory)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Worker>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                Worker worker = new Worker();
+                ready.countDown();
+                start.await();
+                worker.drain(sourceFactory.call());
+                return worker;
+            }));
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        // 合并各线程的统计
+        Histogram latency = new Histogram(MAX_LATENCY_MICROS, 3);
+        Map<String, Long> outcomes = new HashMap<>();
+        for (Future<Worker> future : futures) {
+            Worker worker;
+            try {
+                worker = future.get();
+            } catch (Exception e) {
+                throw new IllegalStateException("压测线程异常退出", e);
+            }
+            latency.add(worker.latency);
+            worker.outcomes.forEach((outcome, count) -> outcomes.merge(outcome, count, Long::sum));
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return new ScenarioReport(name, threads, latency, outcomes, elapsed);
+    }
+
+    private static final class Worker {
+        private final Histogram latency = new Histogram(MAX_LATENCY_MICROS, 3);
+        private final Map<String, Long> outcomes = new HashMap<>();
+
+        private void drain(Source source) {
+            Operation operation;
+            while ((operation = source.next()) != null) {
+                long begin = System.nanoTime();
+                String outcome;
+                try {
+                    outcome = operation.call();
+                } catch (Exception e) {
+                    outcome = "error " + e.getClass().getSimpleName();
+                }
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin);
+                latency.recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+                outcomes.merge(outcome == null ? "unknown" : outcome, 1L, Long::sum);
+            }
+        }
+    }
+}
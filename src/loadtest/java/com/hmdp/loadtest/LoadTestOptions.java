@@ -0,0 +1,101 @@
+package com.hmdp.loadtest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 压测参数，命令行按key=value传入，例如 threads=64 duration=30 users=2000 stock=100
+ */
+final class LoadTestOptions {
+
+    /**
+     * 并发线程数
+     */
+    final int threads;
+    /**
+     * 按时间施压的场景持续多少秒
+     */
+    final int durationSeconds;
+    /**
+     * 登录和秒杀的模拟用户数
+     */
+    final int users;
+    /**
+     * 秒杀券库存
+     */
+    final int stock;
+    /**
+     * 并发压测时同时开抢的秒杀券数量
+     */
+    final int vouchers;
+    /**
+     * 秒杀模式，对应hmdp.seckill.mode：redis或db
+     */
+    final String engine;
+    /**
+     * 每个用户的秒杀请求次数，大于1时用来验证一人一单
+     */
+    final int attempts;
+    /**
+     * 要运行的场景：login、shop、blog、seckill
+     */
+    final Set<String> scenarios;
+
+    private LoadTestOptions(Map<String, String> args) {
+        threads = Integer.parseInt(args.getOrDefault("threads", "64"));
+        durationSeconds = Integer.parseInt(args.getOrDefault("duration", "10"));
+        users = Integer.parseInt(args.getOrDefault("users", "1000"));
+        stock = Integer.parseInt(args.getOrDefault("stock", "100"));
+        vouchers = Integer.parseInt(args.getOrDefault("vouchers", "1"));
+        engine = args.getOrDefault("engine", "redis");
+        attempts = Integer.parseInt(args.getOrDefault("attempts", "2"));
+        scenarios = new LinkedHashSet<>(Arrays.asList(args.getOrDefault("scenarios", "login,shop,blog,seckill").split(",")));
+    }
+
+    static LoadTestOptions parse(String[] args) {
+        return parse(new String[0], args);
+    }
+
+    /**
+     * @param defaults 覆盖默认值的参数，args里同名的参数优先
+     */
+    static LoadTestOptions parse(String[] defaults, String[] args) {
+        Map<String, String> map = new HashMap<>();
+        put(map, defaults);
+        put(map, args);
+        return new LoadTestOptions(map);
+    }
+
+    private static void put(Map<String, String> map, String[] args) {
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i <= 0) {
+                throw new IllegalArgumentException("参数格式应为key=value：" + arg);
+            }
+            map.put(arg.substring(0, i).trim(), arg.substring(i + 1).trim());
+        }
+    }
+
+    boolean redisEngine() {
+        return !"db".equalsIgnoreCase(engine);
+    }
+
+    /**
+     * 随压测参数变化的应用配置
+     */
+    Map<String, Object> applicationProperties() {
+        Map<String, Object> properties = new HashMap<>(4);
+        properties.put("hmdp.seckill.mode", engine);
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + threads + " duration=" + durationSeconds + "s users=" + users
+                + " stock=" + stock + " vouchers=" + vouchers + " attempts=" + attempts
+                + " engine=" + engine + " scenarios=" + String.join(",", scenarios);
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.json.JSONObject;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.standin.LocalStandIns;
+import com.hmdp.utils.CacheClient;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_CODE_KEY;
+
+/**
+ * 发版前的压测：在本地替身（嵌入式redis + H2）上启动整个应用，依次执行
+ * 登录突发、商铺详情风暴、热门探店分页和秒杀四个场景，输出吞吐、延迟分位数，并校验正确性约束。
+ * 任何约束不满足时以非0状态码退出。
+ * <p>
+ * 运行：mvn -Ploadtest test-compile exec:exec -Dloadtest.args="threads=64 duration=30 users=2000 stock=100"
+ */
+public final class LoadTestRunner {
+
+    private static final long HOT_SHOP_ID = 1L;
+    private static final int SHOP_COUNT = 14;
+    private static final long SHOP_CACHE_SECONDS = 20L;
+    private static final int HOT_BLOG_PAGES = 3;
+    private static final long CONVERGE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private final LoadTestOptions options;
+    private final HttpDriver http;
+    private final StringRedisTemplate redis;
+    private final JdbcTemplate jdbc;
+    private final CacheClient cacheClient;
+    private final IShopService shopService;
+    private final SeckillFixture seckill;
+    private final PrintStream out;
+    private final List<ScenarioReport> reports = new ArrayList<>();
+    private final Invariants invariants = new Invariants();
+
+    private LoadTestRunner(ConfigurableApplicationContext context, LoadTestOptions options)
+            throws UnsupportedEncodingException {
+        this.options = options;
+        this.http = new HttpDriver(Integer.parseInt(context.getEnvironment().getProperty("local.server.port")));
+        this.redis = context.getBean(StringRedisTemplate.class);
+        this.jdbc = context.getBean(JdbcTemplate.class);
+        this.cacheClient = context.getBean(CacheClient.class);
+        this.shopService = context.getBean(IShopService.class);
+        this.seckill = new SeckillFixture(http, redis, jdbc, options.redisEngine());
+        // 结果里有中文的业务错误信息，不依赖终端的默认编码
+        this.out = new PrintStream(System.out, true, "UTF-8");
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        boolean passed;
+        try (LocalStandIns standIns = LocalStandIns.start()) {
+            ConfigurableApplicationContext context = standIns.startApplication(options.applicationProperties());
+            try {
+                passed = new LoadTestRunner(context, options).runAll();
+            } finally {
+                context.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean runAll() throws Exception {
+        out.println("load test: " + options);
+        // 登录场景同时为秒杀准备用户token，秒杀需要时总是先执行
+        List<String> tokens = Collections.emptyList();
+        if (options.scenarios.contains("login") || options.scenarios.contains("seckill")) {
+            tokens = loginBurst();
+        }
+        if (options.scenarios.contains("shop")) {
+            shopDetailStorm();
+        }
+        if (options.scenarios.contains("blog")) {
+            hotBlogPaging();
+        }
+        if (options.scenarios.contains("seckill")) {
+            seckill(tokens);
+        }
+        printReport();
+        return invariants.passed();
+    }
+
+    /**
+     * 大量新用户同时获取验证码并登录，每次操作包含/user/code和/user/login两个请求
+     */
+    private List<String> loginBurst() throws InterruptedException {
+        int base = userCount();
+        List<String> phones = IntStream.range(0, options.users)
+                .mapToObj(i -> "138" + String.format("%08d", i))
+                .collect(Collectors.toList());
+        Map<String, String> tokens = Collections.synchronizedMap(new HashMap<>());
+        ScenarioReport report = LoadDriver.runEach("login burst", options.threads, phones, phone -> {
+            HttpDriver.Response sent = http.post("/user/code?phone=" + phone, null, null);
+            if (!sent.isSuccess()) {
+                return sent.outcome();
+            }
+            // 验证码直接从redis读取，代替短信
+            String code = redis.opsForValue().get(LOGIN_CODE_KEY + phone);
+            Map<String, String> form = new HashMap<>(4);
+            form.put("phone", phone);
+            form.put("code", code);
+            HttpDriver.Response login = http.post("/user/login", form, null);
+            if (login.isSuccess()) {
+                tokens.put(phone, (String) login.data());
+            }
+            return login.outcome();
+        });
+        reports.add(report);
+        invariants.check("login: every user got a token", tokens.size() == options.users,
+                tokens.size() + "/" + options.users);
+        invariants.check("login: one user row per new phone", userCount() - base == options.users,
+                "created " + (userCount() - base));
+        return new ArrayList<>(tokens.values());
+    }
+
+    /**
+     * 商铺详情风暴：80%的请求集中在一家热门商铺，其余随机分布
+     */
+    private void shopDetailStorm() throws InterruptedException {
+        // 商铺详情用逻辑过期，缓存需要提前预热，和线上发布前的预热一致
+        for (long id = 1; id <= SHOP_COUNT; id++) {
+            Shop shop = shopService.getById(id);
+            cacheClient.setWithLogicExprie(CACHE_SHOP_KEY + id, shop, SHOP_CACHE_SECONDS, TimeUnit.SECONDS);
+        }
+        ScenarioReport report = LoadDriver.runFor("shop detail storm", options.threads,
+                TimeUnit.SECONDS.toMillis(options.durationSeconds), () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long id = random.nextInt(10) < 8 ? HOT_SHOP_ID : random.nextInt(SHOP_COUNT) + 1;
+                    HttpDriver.Response response = http.get("/shop/" + id, null);
+                    if (response.isSuccess() && !Long.valueOf(id).equals(((JSONObject) response.data()).getLong("id"))) {
+                        return "wrong shop";
+                    }
+                    return response.outcome();
+                });
+        reports.add(report);
+        invariants.check("shop: every request succeeded", report.count("ok") == report.count(),
+                report.count("ok") + "/" + report.count());
+    }
+
+    /**
+     * 热门探店分页，未登录访问
+     */
+    private void hotBlogPaging() throws InterruptedException {
+        ScenarioReport report = LoadDriver.runFor("hot blog paging", options.threads,
+                TimeUnit.SECONDS.toMillis(options.durationSeconds), () -> {
+                    int current = ThreadLocalRandom.current().nextInt(HOT_BLOG_PAGES) + 1;
+                    return http.get("/blog/hot?current=" + current, null).outcome();
+                });
+        reports.add(report);
+        invariants.check("blog: every request succeeded", report.count("ok") == report.count(),
+                report.count("ok") + "/" + report.count());
+    }
+
+    /**
+     * 秒杀：新建一张小库存的秒杀券，所有用户同时抢购，每人请求attempts次
+     */
+    private void seckill(List<String> tokens) throws Exception {
+        long voucherId = seckill.createVoucher(options.stock);
+        List<String> attempts = new ArrayList<>(tokens.size() * options.attempts);
+        for (int i = 0; i < options.attempts; i++) {
+            attempts.addAll(tokens);
+        }
+        Collections.shuffle(attempts);
+        ScenarioReport report = LoadDriver.runEach("seckill", options.threads, attempts,
+                token -> http.post("/voucher-order/seckill/" + voucherId, null, token).outcome());
+        reports.add(report);
+        // 订单异步落库，等待redis和数据库一致后再校验
+        boolean converged = seckill.awaitOrders(CONVERGE_TIMEOUT_MILLIS, voucherId);
+        invariants.check("seckill: orders written within timeout", converged, "voucher=" + voucherId);
+        seckill.check(invariants, "seckill", voucherId, options.stock, report.count("ok"), tokens.size());
+    }
+
+    private int userCount() {
+        return (int) count("SELECT COUNT(*) FROM tb_user");
+    }
+
+    private long count(String sql, Object... args) {
+        Long value = jdbc.queryForObject(sql, Long.class, args);
+        return value == null ? 0L : value;
+    }
+
+    private void printReport() {
+        out.println();
+        out.println(ScenarioReport.header());
+        for (ScenarioReport report : reports) {
+            out.println(report.summary());
+            out.println(report.outcomeSummary());
+        }
+        out.println();
+        invariants.print(out);
+    }
+}
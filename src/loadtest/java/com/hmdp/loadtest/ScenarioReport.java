@@ -0,0 +1,66 @@
+package com.hmdp.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个场景的统计结果：请求数、吞吐、延迟分位数和按结果分类的计数
+ */
+final class ScenarioReport {
+
+    private final String name;
+    private final int threads;
+    private final Histogram latency;
+    private final Map<String, Long> outcomes;
+    private final long elapsedNanos;
+
+    ScenarioReport(String name, int threads, Histogram latency, Map<String, Long> outcomes, long elapsedNanos) {
+        this.name = name;
+        this.threads = threads;
+        this.latency = latency;
+        this.outcomes = new TreeMap<>(outcomes);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long count() {
+        return latency.getTotalCount();
+    }
+
+    long count(String outcome) {
+        return outcomes.getOrDefault(outcome, 0L);
+    }
+
+    double throughput() {
+        return count() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    static String header() {
+        return String.format("%-20s %7s %9s %10s %9s %9s %9s %9s %9s",
+                "scenario", "threads", "requests", "req/s", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+    }
+
+    String summary() {
+        return String.format("%-20s %7d %9d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                name, threads, count(), throughput(),
+                millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                millis(latency.getMaxValue()));
+    }
+
+    String outcomeSummary() {
+        StringBuilder sb = new StringBuilder("  outcomes:");
+        outcomes.forEach((outcome, count) -> sb.append(' ').append(outcome).append('=').append(count));
+        return sb.toString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
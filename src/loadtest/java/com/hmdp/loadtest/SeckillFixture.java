@@ -0,0 +1,129 @@
+package com.hmdp.loadtest;
+
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_KEY;
+
+/**
+ * 秒杀压测的公共步骤：创建秒杀券、等待订单异步落库、校验库存和订单的一致性。
+ * db模式下订单同步落库，不检查redis里的库存和下单用户
+ */
+final class SeckillFixture {
+
+    private static final long SHOP_ID = 1L;
+
+    private final HttpDriver http;
+    private final StringRedisTemplate redis;
+    private final JdbcTemplate jdbc;
+    private final boolean redisEngine;
+
+    SeckillFixture(HttpDriver http, StringRedisTemplate redis, JdbcTemplate jdbc, boolean redisEngine) {
+        this.http = http;
+        this.redis = redis;
+        this.jdbc = jdbc;
+        this.redisEngine = redisEngine;
+    }
+
+    /**
+     * 通过接口新建一张正在秒杀中的券，和后台发券的流程一致
+     */
+    long createVoucher(int stock) throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        Map<String, Object> voucher = new HashMap<>();
+        voucher.put("shopId", SHOP_ID);
+        voucher.put("title", "压测秒杀券");
+        voucher.put("subTitle", "load test");
+        voucher.put("rules", "load test");
+        voucher.put("payValue", 8000);
+        voucher.put("actualValue", 10000);
+        voucher.put("type", 1);
+        voucher.put("status", 1);
+        voucher.put("stock", stock);
+        voucher.put("beginTime", LocalDateTime.now().minusHours(1).format(formatter));
+        voucher.put("endTime", LocalDateTime.now().plusHours(1).format(formatter));
+        HttpDriver.Response response = http.post("/voucher/seckill", voucher, null);
+        if (!response.isSuccess()) {
+            throw new IllegalStateException("创建秒杀券失败：" + response.outcome());
+        }
+        return Long.parseLong(response.data().toString());
+    }
+
+    /**
+     * 等待订单消息全部被消费：每张券的数据库订单数等于redis里的下单用户数，并且没有未确认的消息
+     */
+    boolean awaitOrders(long timeoutMillis, long... voucherIds) throws InterruptedException {
+        if (!redisEngine) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (noPendingMessages() && allOrdersWritten(voucherIds)) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        return false;
+    }
+
+    /**
+     * 校验一张券的最终状态
+     *
+     * @param accepted 返回下单成功的请求数
+     * @param buyers   抢购这张券的用户数，超过库存时应当售罄
+     */
+    void check(Invariants invariants, String name, long voucherId, int stock, long accepted, int buyers) {
+        long orders = count("SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", voucherId);
+        long dbStock = count("SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", voucherId);
+        long duplicated = count("SELECT COUNT(*) FROM (SELECT user_id FROM tb_voucher_order WHERE voucher_id = ? "
+                + "GROUP BY user_id HAVING COUNT(*) > 1) t", voucherId);
+        invariants.check(name + ": no overselling", orders <= stock && dbStock >= 0,
+                "orders=" + orders + " stock=" + dbStock);
+        invariants.check(name + ": stock + orders = initial stock", dbStock + orders == stock,
+                dbStock + " + " + orders + " vs " + stock);
+        invariants.check(name + ": one order per user", duplicated == 0, "users with duplicates=" + duplicated);
+        invariants.check(name + ": every accepted request has an order", accepted == orders,
+                "accepted=" + accepted + " orders=" + orders);
+        if (redisEngine) {
+            String redisStock = redis.opsForValue().get(SECKILL_STOCK_KEY + voucherId);
+            Long redisBuyers = redis.opsForSet().size(SECKILL_ORDER_KEY + voucherId);
+            invariants.check(name + ": redis matches database",
+                    String.valueOf(dbStock).equals(redisStock) && redisBuyers != null && redisBuyers == orders,
+                    "redis stock=" + redisStock + " buyers=" + redisBuyers);
+        }
+        if (buyers >= stock) {
+            invariants.check(name + ": sold out when demand exceeds stock", dbStock == 0, "stock=" + dbStock);
+        }
+    }
+
+    private boolean noPendingMessages() {
+        PendingMessagesSummary pending = redis.opsForStream().pending(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP);
+        return pending == null || pending.getTotalPendingMessages() == 0;
+    }
+
+    private boolean allOrdersWritten(long... voucherIds) {
+        for (long voucherId : voucherIds) {
+            Long buyers = redis.opsForSet().size(SECKILL_ORDER_KEY + voucherId);
+            long orders = count("SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", voucherId);
+            if (buyers == null || buyers != orders) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long count(String sql, Object... args) {
+        Long value = jdbc.queryForObject(sql, Long.class, args);
+        return value == null ? 0L : value;
+    }
+}
@@ -0,0 +1,192 @@
+package com.hmdp.loadtest;
+
+import com.hmdp.standin.LocalStandIns;
+import com.hmdp.utils.RedisBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 秒杀并发压测：大量模拟用户同时抢购几张小库存的秒杀券，每人对每张券请求attempts次。
+ * 结束后校验库存不为负、一人一单、redis和数据库最终一致，并输出竞争情况：
+ * 库存重新加载、消息重投、落库失败次数，扣减库存的update耗时（包含等待行锁的时间），以及db模式下等待用户锁的时间。
+ * 任何约束不满足时以非0状态码退出。
+ * <p>
+ * 用户直接写入数据库，登录token直接写入redis，不经过登录接口，压力全部集中在秒杀链路上。
+ * <p>
+ * 运行：mvn -Ploadtest test-compile exec:exec -Dloadtest.main=com.hmdp.loadtest.SeckillStressRunner
+ * -Dloadtest.args="threads=64 users=5000 vouchers=3 stock=20 attempts=2"，加上engine=db对比数据库模式
+ */
+public final class SeckillStressRunner {
+
+    private static final String[] DEFAULTS = {"users=2000", "vouchers=3", "stock=20", "attempts=2"};
+    private static final long CONVERGE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(120);
+
+    private final LoadTestOptions options;
+    private final HttpDriver http;
+    private final StringRedisTemplate redis;
+    private final JdbcTemplate jdbc;
+    private final MeterRegistry registry;
+    private final SeckillFixture seckill;
+    private final PrintStream out;
+    private final Invariants invariants = new Invariants();
+
+    private SeckillStressRunner(ConfigurableApplicationContext context, LoadTestOptions options)
+            throws UnsupportedEncodingException {
+        this.options = options;
+        this.http = new HttpDriver(Integer.parseInt(context.getEnvironment().getProperty("local.server.port")));
+        this.redis = context.getBean(StringRedisTemplate.class);
+        this.jdbc = context.getBean(JdbcTemplate.class);
+        this.registry = context.getBean(MeterRegistry.class);
+        this.seckill = new SeckillFixture(http, redis, jdbc, options.redisEngine());
+        this.out = new PrintStream(System.out, true, "UTF-8");
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(DEFAULTS, args);
+        boolean passed;
+        try (LocalStandIns standIns = LocalStandIns.start()) {
+            ConfigurableApplicationContext context = standIns.startApplication(options.applicationProperties());
+            try {
+                passed = new SeckillStressRunner(context, options).run();
+            } finally {
+                context.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        out.println("seckill stress: " + options);
+        // 1.准备用户和秒杀券
+        List<String> tokens = createUsers();
+        Map<Long, LongAdder> accepted = new LinkedHashMap<>();
+        for (int i = 0; i < options.vouchers; i++) {
+            accepted.put(seckill.createVoucher(options.stock), new LongAdder());
+        }
+        // 2.每个用户对每张券请求attempts次，打乱顺序后并发发出
+        List<Attempt> attempts = new ArrayList<>(tokens.size() * accepted.size() * options.attempts);
+        for (String token : tokens) {
+            for (Long voucherId : accepted.keySet()) {
+                for (int i = 0; i < options.attempts; i++) {
+                    attempts.add(new Attempt(token, voucherId));
+                }
+            }
+        }
+        Collections.shuffle(attempts);
+        Map<Long, LongAdder> accepting = new ConcurrentHashMap<>(accepted);
+        ScenarioReport report = LoadDriver.runEach("seckill stress", options.threads, attempts, attempt -> {
+            HttpDriver.Response response = http.post("/voucher-order/seckill/" + attempt.voucherId, null, attempt.token);
+            if (response.isSuccess()) {
+                accepting.get(attempt.voucherId).increment();
+            }
+            return response.outcome();
+        });
+        // 3.等待订单异步落库，记录收敛耗时
+        long start = System.nanoTime();
+        long[] voucherIds = accepted.keySet().stream().mapToLong(Long::longValue).toArray();
+        boolean converged = seckill.awaitOrders(CONVERGE_TIMEOUT_MILLIS, voucherIds);
+        long convergeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        invariants.check("stress: orders written within timeout", converged, convergeMillis + " ms");
+        // 4.逐张券校验
+        accepted.forEach((voucherId, count) -> seckill.check(invariants, "voucher " + voucherId,
+                voucherId, options.stock, count.sum(), tokens.size()));
+
+        out.println();
+        out.println(ScenarioReport.header());
+        out.println(report.summary());
+        out.println(report.outcomeSummary());
+        out.println("  converged in " + convergeMillis + " ms after the last request");
+        out.println();
+        printContention();
+        out.println();
+        invariants.print(out);
+        return invariants.passed();
+    }
+
+    /**
+     * 批量插入用户，并按登录接口的格式把token写入redis
+     */
+    private List<String> createUsers() {
+        List<String> phones = IntStream.range(0, options.users)
+                .mapToObj(i -> "139" + String.format("%08d", i))
+                .collect(Collectors.toList());
+        jdbc.batchUpdate("INSERT INTO tb_user (phone, nick_name) VALUES (?, ?)",
+                phones.stream().map(phone -> new Object[]{phone, "stress_" + phone}).collect(Collectors.toList()));
+
+        List<String> tokens = new ArrayList<>(phones.size());
+        RedisBatch batch = RedisBatch.pipeline(redis);
+        jdbc.query("SELECT id, nick_name FROM tb_user WHERE phone LIKE '139%'", rs -> {
+            String token = UUID.randomUUID().toString().replace("-", "");
+            Map<String, String> user = new HashMap<>(4);
+            user.put("id", rs.getString("id"));
+            user.put("nickName", rs.getString("nick_name"));
+            batch.hMSet(LOGIN_USER_KEY + token, user)
+                    .expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+            tokens.add(token);
+        });
+        batch.execute();
+        return tokens;
+    }
+
+    /**
+     * 从应用的指标里读取竞争情况
+     */
+    private void printContention() {
+        out.println("contention profile:");
+        // 按result分开的计时器只输出出现过的结果
+        registry.find("seckill.requests").timers().stream().filter(timer -> timer.count() > 0)
+                .forEach(timer -> out.println(timer("  request " + timer.getId().getTag("result"), timer)));
+        registry.find("seckill.order.write").timers().stream().filter(timer -> timer.count() > 0)
+                .forEach(timer -> out.println(timer("  order write " + timer.getId().getTag("result"), timer)));
+        out.println(timer("  stock update (incl. row lock wait)", registry.find("seckill.stock.update").timer()));
+        out.println(timer("  user lock wait (db engine)", registry.find("seckill.lock.wait").timer()));
+        out.println(timer("  enqueue-to-write lag", registry.find("seckill.order.lag").timer()));
+        out.println(counter("  stock reloads", registry.find("seckill.stock.reloads").counter()));
+        out.println(counter("  redelivered messages", registry.find("seckill.order.redeliveries").counter()));
+        out.println(counter("  write failures", registry.find("seckill.order.failures").counter()));
+    }
+
+    private static String timer(String name, Timer timer) {
+        if (timer == null) {
+            return String.format("%-40s %s", name, "n/a");
+        }
+        return String.format("%-40s count=%-8d mean=%.2fms max=%.2fms", name, timer.count(),
+                timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS));
+    }
+
+    private static String counter(String name, Counter counter) {
+        return String.format("%-40s %d", name, counter == null ? 0L : (long) counter.count());
+    }
+
+    private static final class Attempt {
+        private final String token;
+        private final long voucherId;
+
+        private Attempt(String token, long voucherId) {
+            this.token = token;
+            this.voucherId = voucherId;
+        }
+    }
+}
@@ -1,25 +1,120 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.InlineCallableReturnValueHandler;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginUserCache;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenClient;
+import com.hmdp.utils.UserContextTaskDecorator;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestResponseBodyMethodProcessor;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
     StringRedisTemplate stringRedisTemplate;
+    @Resource
+    LoginUserCache loginUserCache;
+    @Resource
+    SignedTokenClient signedTokenClient;
+
+    @Value("${hmdp.web.async.enabled:false}")
+    private boolean asyncEnabled;
+    @Value("${hmdp.web.async.core-size:50}")
+    private int asyncCoreSize;
+    @Value("${hmdp.web.async.max-size:200}")
+    private int asyncMaxSize;
+    @Value("${hmdp.web.async.queue-capacity:1000}")
+    private int asyncQueueCapacity;
+    @Value("${hmdp.web.async.timeout:10000}")
+    private long asyncTimeout;
+
+    private ThreadPoolTaskExecutor asyncExecutor;
+    private RefreshTokenInterceptor refreshTokenInterceptor;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if (!asyncEnabled) {
+            // 未开启时Callable由InlineCallableReturnValueHandler直接执行，这里只兜底其它异步返回值
+            configurer.setTaskExecutor(new TaskExecutorAdapter(Runnable::run));
+            return;
+        }
+        // 开启后返回Callable的接口交给独立线程池执行，tomcat线程立即释放去接收其它请求
+        asyncExecutor = new ThreadPoolTaskExecutor();
+        asyncExecutor.setCorePoolSize(asyncCoreSize);
+        asyncExecutor.setMaxPoolSize(asyncMaxSize);
+        asyncExecutor.setQueueCapacity(asyncQueueCapacity);
+        asyncExecutor.setThreadNamePrefix("mvc-async-");
+        asyncExecutor.setTaskDecorator(new UserContextTaskDecorator());
+        asyncExecutor.initialize();
+        configurer.setTaskExecutor(asyncExecutor);
+        configurer.setDefaultTimeout(asyncTimeout);
+    }
+
+    /**
+     * 未开启异步时，把执行Callable的处理器放在最前面，优先于spring自带的异步处理
+     */
+    @Bean
+    public SmartInitializingSingleton inlineCallableRegistrar(RequestMappingHandlerAdapter adapter) {
+        return () -> {
+            if (asyncEnabled || adapter.getReturnValueHandlers() == null) {
+                return;
+            }
+            List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>(adapter.getReturnValueHandlers());
+            handlers.stream()
+                    .filter(handler -> handler instanceof RequestResponseBodyMethodProcessor)
+                    .findFirst()
+                    .ifPresent(responseBody -> {
+                        handlers.add(0, new InlineCallableReturnValueHandler(responseBody));
+                        adapter.setReturnValueHandlers(handlers);
+                    });
+        };
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictTokenRefreshTimes() {
+        if (refreshTokenInterceptor != null) {
+            refreshTokenInterceptor.evictStale();
+        }
+    }
+
+    @PreDestroy
+    public void shutdownAsyncExecutor() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
 //        WebMvcConfigurer.super.addInterceptors(registry);
-        registry.addInterceptor(new LoginInterceptor(stringRedisTemplate)).excludePathPatterns(
+        // token刷新拦截器，拦截所有请求
+        refreshTokenInterceptor = new RefreshTokenInterceptor(stringRedisTemplate, loginUserCache, signedTokenClient);
+        registry.addInterceptor(refreshTokenInterceptor).addPathPatterns("/**").order(0);
+        // 登录拦截器
+        registry.addInterceptor(new LoginInterceptor()).excludePathPatterns(
                 "/shop/**",
                 "/voucher/**",
                 "/shop-type/**",
                 "/blog/hot",
+                "/imgs/**",
                 "/user/code",
                 "/user/login"
         ).order(1);
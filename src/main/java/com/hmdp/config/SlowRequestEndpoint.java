@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import com.hmdp.dto.SlowRequest;
+import com.hmdp.utils.SlowRequestLog;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 慢请求查询，挂在监控端口上：GET /actuator/slowrequests
+ */
+@Component
+@Endpoint(id = "slowrequests")
+public class SlowRequestEndpoint {
+    @Resource
+    private SlowRequestLog slowRequestLog;
+
+    @ReadOperation
+    public List<SlowRequest> slowRequests() {
+        return slowRequestLog.list();
+    }
+}
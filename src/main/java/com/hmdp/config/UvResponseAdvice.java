@@ -0,0 +1,72 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.TrackUv;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvClient;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * 统计@TrackUv接口的UV：在写出响应前检查返回结果，只有查询成功时才记录访问，
+ * 不存在的id不会产生UV数据。Callable、Mono等异步返回值在得到最终结果后才会经过这里
+ */
+@RestControllerAdvice
+public class UvResponseAdvice implements ResponseBodyAdvice<Object> {
+    private static final String DEVICE_ID_HEADER = "X-Device-Id";
+
+    @Resource
+    private UvClient uvClient;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return returnType.hasMethodAnnotation(TrackUv.class);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!(body instanceof Result) || !BooleanUtil.isTrue(((Result) body).getSuccess())
+                || !(request instanceof ServletServerHttpRequest)) {
+            return body;
+        }
+        HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables =
+                (Map<String, String>) servletRequest.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = pathVariables == null ? null : pathVariables.get("id");
+        if (StrUtil.isNotBlank(id)) {
+            TrackUv trackUv = returnType.getMethodAnnotation(TrackUv.class);
+            uvClient.record(trackUv.value(), id, resolveVisitor(servletRequest));
+        }
+        return body;
+    }
+
+    // 已登录用户按用户id计，否则按设备id，最后退化为ip
+    private String resolveVisitor(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            return "u" + user.getId();
+        }
+        String deviceId = request.getHeader(DEVICE_ID_HEADER);
+        if (StrUtil.isNotBlank(deviceId)) {
+            return "d" + deviceId;
+        }
+        return "i" + request.getRemoteAddr();
+    }
+}
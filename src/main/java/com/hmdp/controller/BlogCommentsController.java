@@ -1,9 +1,13 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -17,4 +21,58 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    /**
+     * 发表评论或回复
+     * @param comment 评论内容，回复时需要带上parentId和answerId
+     * @return 评论id
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 滚动分页查询博文的一级评论，按时间倒序
+     * @param blogId 博文id
+     * @param lastTime 上一页最后一条评论的时间戳，第一页不传
+     * @param lastId 上一页最后一条评论的id，第一页不传
+     * @return 评论列表和下一页的游标
+     */
+    @GetMapping("/of/blog")
+    public Result queryCommentsOfBlog(
+            @RequestParam("blogId") Long blogId,
+            @RequestParam(value = "lastTime", required = false) Long lastTime,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return blogCommentsService.queryCommentsOfBlog(blogId, lastTime, lastId);
+    }
+
+    /**
+     * 滚动分页查询一级评论下的回复，按时间正序
+     * @param parentId 一级评论id
+     * @param lastTime 上一页最后一条回复的时间戳，第一页不传
+     * @param lastId 上一页最后一条回复的id，第一页不传
+     * @return 回复列表和下一页的游标
+     */
+    @GetMapping("/of/parent")
+    public Result queryRepliesOfParent(
+            @RequestParam("parentId") Long parentId,
+            @RequestParam(value = "lastTime", required = false) Long lastTime,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return blogCommentsService.queryRepliesOfParent(parentId, lastTime, lastId);
+    }
+
+    /**
+     * 批量查询多条一级评论的前几条回复
+     * @param parentIds 一级评论id列表
+     * @return 一级评论id到回复列表的映射
+     */
+    @GetMapping("/replies")
+    public Result queryRepliesOfParents(@RequestParam("parentIds") List<Long> parentIds) {
+        return blogCommentsService.queryRepliesOfParents(parentIds);
+    }
 }
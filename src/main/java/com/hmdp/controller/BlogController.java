@@ -8,12 +8,19 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.ImageStorage;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TrackUv;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvClient;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -31,6 +38,10 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private UvClient uvClient;
+    @Resource
+    private ImageStorage imageStorage;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -52,32 +63,66 @@ public class BlogController {
     }
 
     @GetMapping("/of/me")
-    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 获取登录用户
-        UserDTO user = UserHolder.getUser();
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+    public Callable<Result> queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        return () -> {
+            // 获取登录用户
+            UserDTO user = UserHolder.getUser();
+            // 根据用户查询
+            Page<Blog> page = blogService.query()
+                    .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            // 获取当前页数据
+            List<Blog> records = page.getRecords();
+            // 列表页使用缩略图
+            fillThumbnails(records);
+            return Result.ok(records);
+        };
     }
 
     @GetMapping("/hot")
-    public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
-        });
-        return Result.ok(records);
+    public Callable<Result> queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        return () -> {
+            // 根据用户查询
+            Page<Blog> page = blogService.query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            // 获取当前页数据
+            List<Blog> records = page.getRecords();
+            // 查询用户
+            records.forEach(blog ->{
+                Long userId = blog.getUserId();
+                User user = userService.getById(userId);
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            });
+            fillThumbnails(records);
+            return Result.ok(records);
+        };
+    }
+
+    @TrackUv("blog")
+    @GetMapping("/{id}")
+    public Callable<Result> queryBlogById(@PathVariable("id") Long id) {
+        return () -> blogService.queryBlogById(id);
+    }
+
+    @GetMapping("/uv/{id}")
+    public Result queryBlogUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "begin", required = false) @DateTimeFormat(pattern = "yyyyMMdd") LocalDate begin,
+            @RequestParam(value = "end", required = false) @DateTimeFormat(pattern = "yyyyMMdd") LocalDate end
+    ) {
+        Long uv = uvClient.count("blog", id.toString(), begin, end);
+        if (uv == null) {
+            return Result.fail("日期范围错误");
+        }
+        return Result.ok(uv);
+    }
+
+    private void fillThumbnails(List<Blog> records) {
+        List<String> thumbnails = imageStorage.thumbnailsOf(
+                records.stream().map(Blog::getImages).collect(Collectors.toList()));
+        for (int i = 0; i < records.size(); i++) {
+            records.get(i).setThumbnails(thumbnails.get(i));
+        }
     }
 }
@@ -1,9 +1,11 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.service.IFollowService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +19,47 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/follow")
 public class FollowController {
 
+    @Resource
+    private IFollowService followService;
+
+    /**
+     * 关注或取关用户
+     * @param followUserId 被关注的用户id
+     * @param isFollow true：关注，false：取关
+     * @return 无
+     */
+    @PutMapping("/{id}/{isFollow}")
+    public Result follow(@PathVariable("id") Long followUserId, @PathVariable("isFollow") Boolean isFollow) {
+        return followService.follow(followUserId, isFollow);
+    }
+
+    /**
+     * 判断当前用户是否关注了指定用户
+     * @param followUserId 被关注的用户id
+     * @return 是否关注
+     */
+    @GetMapping("/or/not/{id}")
+    public Result isFollow(@PathVariable("id") Long followUserId) {
+        return followService.isFollow(followUserId);
+    }
+
+    /**
+     * 查询当前用户与指定用户的共同关注
+     * @param id 目标用户id
+     * @return 共同关注的用户列表
+     */
+    @GetMapping("/common/{id}")
+    public Result followCommons(@PathVariable("id") Long id) {
+        return followService.followCommons(id);
+    }
+
+    /**
+     * 查询用户的关注数和粉丝数
+     * @param id 用户id
+     * @return 关注数和粉丝数
+     */
+    @GetMapping("/count/{id}")
+    public Result queryFollowCount(@PathVariable("id") Long id) {
+        return followService.queryFollowCount(id);
+    }
 }
@@ -7,9 +7,15 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TrackUv;
+import com.hmdp.utils.UvClient;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.concurrent.Callable;
 
 /**
  * <p>
@@ -26,15 +32,50 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvClient uvClient;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
+    @TrackUv("shop")
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public Callable<Result> queryShopById(@PathVariable("id") Long id) {
 //        return Result.ok(shopService.getById(id));
-        return shopService.queryById(id);
+        return () -> shopService.queryById(id);
+    }
+
+    /**
+     * 根据id查询商铺信息，响应式版本，redis读写不占用请求线程
+     * @param id 商铺id
+     * @return 商铺详情数据
+     */
+    @TrackUv("shop")
+    @GetMapping("/reactive/{id}")
+    public Mono<Result> queryShopByIdReactive(@PathVariable("id") Long id) {
+        return shopService.queryByIdReactive(id);
+    }
+
+    /**
+     * 查询商铺详情页的UV
+     * @param id 商铺id
+     * @param begin 开始日期，格式yyyyMMdd，与end都不传时查询总UV
+     * @param end 结束日期，格式yyyyMMdd，不传则为今天
+     * @return UV
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryShopUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "begin", required = false) @DateTimeFormat(pattern = "yyyyMMdd") LocalDate begin,
+            @RequestParam(value = "end", required = false) @DateTimeFormat(pattern = "yyyyMMdd") LocalDate end
+    ) {
+        Long uv = uvClient.count("shop", id.toString(), begin, end);
+        if (uv == null) {
+            return Result.fail("日期范围错误");
+        }
+        return Result.ok(uv);
     }
 
     /**
@@ -44,10 +85,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -65,37 +104,96 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param sort 排序方式：id（默认）、sold销量、score评分、comments评论数、price均价，除id和均价外都是从高到低
+     * @param minPrice 最低均价，不传则不限
+     * @param maxPrice 最高均价，不传则不限
+     * @param withTotal 是否需要总数
      * @return 商铺列表
      */
     @GetMapping("/of/type")
-    public Result queryShopByType(
+    public Callable<Result> queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "sort", defaultValue = "id") String sort,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return () -> shopService.queryShopByType(typeId, current, sort, minPrice, maxPrice, withTotal);
+    }
+
+    /**
+     * 根据商铺类型分页查询商铺信息，响应式版本，redis读写不占用请求线程，不支持均价范围筛选
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param sort 排序方式，同/of/type
+     * @return 商铺列表
+     */
+    @GetMapping("/reactive/of/type")
+    public Mono<Result> queryShopByTypeReactive(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "sort", defaultValue = "id") String sort
+    ) {
+        return shopService.queryShopByTypeReactive(typeId, current, sort);
+    }
+
+    /**
+     * 根据商铺类型滚动分页查询商铺信息，适合无限下拉的列表，翻页越深也不会变慢
+     * @param typeId 商铺类型
+     * @param sort 排序方式，同/of/type
+     * @param minPrice 最低均价，不传则不限
+     * @param maxPrice 最高均价，不传则不限
+     * @param cursor 上一页返回的游标，第一页不传，翻页时其它参数要和第一页一致
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/scroll/type")
+    public Callable<Result> scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "sort", defaultValue = "id") String sort,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return () -> shopService.scrollShopByType(typeId, sort, minPrice, maxPrice, cursor);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
+     * @param withTotal 是否需要总数，需要时多执行一次count
      * @return 商铺列表
      */
     @GetMapping("/of/name")
-    public Result queryShopByName(
+    public Callable<Result> queryShopByName(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal
+    ) {
+        return () -> listShopByName(name, current, withTotal);
+    }
+
+    /**
+     * 根据商铺名称关键字滚动分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/scroll/name")
+    public Callable<Result> scrollShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
+        return () -> shopService.scrollShopByName(name, cursor);
+    }
+
+    private Result listShopByName(String name, Integer current, boolean withTotal) {
+        // 根据类型分页查询，不需要总数时跳过count
         Page<Shop> page = shopService.query()
                 .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, withTotal));
         // 返回数据
-        return Result.ok(page.getRecords());
+        return withTotal ? Result.ok(page.getRecords(), page.getTotal()) : Result.ok(page.getRecords());
     }
 }
@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * <p>
@@ -26,9 +27,11 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
-        List<ShopType> typeList = typeService
-                .query().orderByAsc("sort").list();
-        return Result.ok(typeList);
+    public Callable<Result> queryTypeList() {
+        return () -> {
+            List<ShopType> typeList = typeService
+                    .query().orderByAsc("sort").list();
+            return Result.ok(typeList);
+        };
     }
 }
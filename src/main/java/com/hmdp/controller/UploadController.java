@@ -1,63 +1,71 @@
 package com.hmdp.controller;
 
-import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.ImageStorage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
-import java.util.UUID;
 
 @Slf4j
 @RestController
 @RequestMapping("/upload")
 public class UploadController {
 
+    @Resource
+    private ImageStorage imageStorage;
+
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
         try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
             // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+            String fileName = imageStorage.save(image, UserHolder.getUser().getId());
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
             return Result.ok(fileName);
+        } catch (ImageStorage.SizeLimitExceededException e) {
+            return Result.fail("图片大小超过限制");
         } catch (IOException e) {
             throw new RuntimeException("文件上传失败", e);
         }
     }
 
-    @GetMapping("/blog/delete")
-    public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
-            return Result.fail("错误的文件名称");
+    /**
+     * 流式上传，请求体就是图片内容，直接写入存储目录，不经过multipart解析和临时文件
+     * @param suffix 文件后缀，如jpg
+     * @return 文件名
+     */
+    @PostMapping("blog/stream")
+    public Result uploadImageStream(@RequestParam("suffix") String suffix, HttpServletRequest request) {
+        try {
+            String fileName = imageStorage.save(
+                    request.getInputStream(), request.getContentLengthLong(), suffix, UserHolder.getUser().getId());
+            log.debug("文件上传成功，{}", fileName);
+            return Result.ok(fileName);
+        } catch (ImageStorage.SizeLimitExceededException e) {
+            return Result.fail("图片大小超过限制");
+        } catch (IOException e) {
+            throw new RuntimeException("文件上传失败", e);
         }
-        FileUtil.del(file);
-        return Result.ok();
     }
 
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
+    @GetMapping("/blog/delete")
+    public Result deleteBlogImg(@RequestParam("name") String filename) {
+        try {
+            if (imageStorage.resolve(filename) == null) {
+                return Result.fail("错误的文件名称");
+            }
+            // 只释放当前用户的引用，重复删除或删除别人上传的图片不会影响其它引用者
+            if (!imageStorage.delete(filename, UserHolder.getUser().getId())) {
+                return Result.fail("图片不存在或不属于当前用户");
+            }
+            return Result.ok();
+        } catch (IOException e) {
+            throw new RuntimeException("文件删除失败", e);
         }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
     }
 }
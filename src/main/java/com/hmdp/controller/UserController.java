@@ -5,13 +5,16 @@ import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -33,9 +36,14 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
+    @RateLimit(key = RateLimit.KeyType.PHONE, limit = 1, window = 60)
+    @RateLimit(key = RateLimit.KeyType.IP, limit = 20, window = 60)
     @PostMapping("/code")
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         // TODO 发送短信验证码并保存验证码
@@ -47,6 +55,8 @@ public class UserController {
      *
      * @param loginForm 登录参数，包含手机号、验证码；或者手机号、密码
      */
+    @RateLimit(key = RateLimit.KeyType.PHONE, limit = 5, window = 60)
+    @RateLimit(key = RateLimit.KeyType.IP, limit = 30, window = 60)
     @PostMapping("/login")
     public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session) {
         // TODO 实现登录功能
@@ -59,9 +69,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout() {
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(HttpServletRequest request) {
+        return userService.logout(request.getHeader("Authorization"));
     }
 
     @GetMapping("/me")
@@ -76,14 +85,50 @@ public class UserController {
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId) {
         // 查询详情
-        UserInfo info = userInfoService.getById(userId);
-        if (info == null) {
-            // 没有详情，应该是第一次查看详情
-            return Result.ok();
-        }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
-        // 返回
-        return Result.ok(info);
+        return userInfoService.queryUserInfo(userId);
+    }
+
+    /**
+     * 修改当前登录用户的详情
+     *
+     * @param userInfo 城市、个人介绍、性别、生日
+     */
+    @PutMapping("/info")
+    public Result updateInfo(@RequestBody UserInfo userInfo) {
+        return userInfoService.updateUserInfo(userInfo);
+    }
+
+    /**
+     * 查询用户的公开信息
+     */
+    @GetMapping("/{id}")
+    public Result queryUserById(@PathVariable("id") Long userId) {
+        return userService.queryUserById(userId);
+    }
+
+    /**
+     * 今日签到
+     */
+    @PostMapping("/sign")
+    public Result sign() {
+        return signService.sign();
+    }
+
+    /**
+     * 查询截止到今天的连续签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount() {
+        return signService.signCount();
+    }
+
+    /**
+     * 查询某个月的签到天数
+     *
+     * @param month 月份，格式yyyyMM，不传则为本月
+     */
+    @GetMapping("/sign/month")
+    public Result queryMonthSignCount(@RequestParam(value = "month", required = false) String month) {
+        return signService.queryMonthSignCount(month);
     }
 }
@@ -0,0 +1,42 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+public class SlowRequest {
+    private LocalDateTime time;
+    private String method;
+    private String uri;
+    private String handler;
+    private Integer status;
+    private Long costMicros;
+    private Integer redisCalls;
+    private Long redisMicros;
+    private Integer sqlCalls;
+    private Long sqlMicros;
+    /**
+     * 调用明细，超过上限的只计数不记录
+     */
+    private List<Call> calls;
+    private Integer droppedCalls;
+
+    @Data
+    public static class Call {
+        /**
+         * redis或sql
+         */
+        private String type;
+        /**
+         * redis命令或mapper方法
+         */
+        private String name;
+        /**
+         * 相对请求开始的时间
+         */
+        private Long startMicros;
+        private Long costMicros;
+    }
+}
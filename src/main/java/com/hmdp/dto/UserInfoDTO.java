@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+@Data
+public class UserInfoDTO {
+    private Long userId;
+    private String city;
+    private String introduce;
+    private Integer fans;
+    private Integer followee;
+    private Boolean gender;
+    private LocalDate birthday;
+    private Integer credits;
+    private Boolean level;
+}
@@ -65,6 +65,11 @@ public class Blog implements Serializable {
      * 探店的照片，最多9张，多张以","隔开
      */
     private String images;
+    /**
+     * 照片对应的缩略图，与images一一对应，没有缩略图的用原图
+     */
+    @TableField(exist = false)
+    private String thumbnails;
 
     /**
      * 探店的文字描述
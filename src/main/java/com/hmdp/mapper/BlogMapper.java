@@ -2,6 +2,7 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -13,4 +14,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 记录一篇博文的评论数增量已在某个批次写回，主键冲突说明已经写回过
+     */
+    int insertCommentFlush(@Param("batchId") String batchId, @Param("blogId") Long blogId);
+
+    int deleteCommentFlush(@Param("batchId") String batchId);
 }
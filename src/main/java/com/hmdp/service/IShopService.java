@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
+import reactor.core.publisher.Mono;
 
 /**
  * <p>
@@ -14,6 +15,11 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
+    Mono<Result> queryByIdReactive(Long id);
     Result update(Shop shop);
-    Result queryShopByType();
+    Result saveShop(Shop shop);
+    Result queryShopByType(Integer typeId, Integer current, String sort, Long minPrice, Long maxPrice, boolean withTotal);
+    Mono<Result> queryShopByTypeReactive(Integer typeId, Integer current, String sort);
+    Result scrollShopByType(Integer typeId, String sort, Long minPrice, Long maxPrice, String cursor);
+    Result scrollShopByName(String name, String cursor);
 }
@@ -1,10 +1,47 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
+import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_COMMENTS_FLUSHING_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_COMMENTS_PENDING_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_COMMENTS_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_COMMENTS_TTL;
 
 /**
  * <p>
@@ -14,7 +51,215 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    private static final int MAX_CONTENT_LENGTH = 255;
+    /**
+     * flushing中记录本批次id的字段，其余字段都是博文id
+     */
+    private static final String FLUSH_BATCH_FIELD = "batch";
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null) {
+            return Result.fail("博文id不能为空");
+        }
+        if (StrUtil.isBlank(comment.getContent()) || comment.getContent().length() > MAX_CONTENT_LENGTH) {
+            return Result.fail("评论内容不能为空且不能超过255个字符");
+        }
+        Blog blog = blogService.getById(comment.getBlogId());
+        if (blog == null) {
+            return Result.fail("博文不存在");
+        }
+        // 1.一级评论的parentId和answerId为0
+        if (comment.getParentId() == null || comment.getParentId() == 0) {
+            comment.setParentId(0L);
+            comment.setAnswerId(0L);
+        } else {
+            // 2.回复必须挂在同一篇博文的一级评论下
+            BlogComments parent = getById(comment.getParentId());
+            if (parent == null || parent.getParentId() != 0 || !parent.getBlogId().equals(comment.getBlogId())) {
+                return Result.fail("回复的评论不存在");
+            }
+            if (comment.getAnswerId() == null || comment.getAnswerId() == 0) {
+                comment.setAnswerId(parent.getId());
+            }
+        }
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setLiked(0);
+        comment.setStatus(null);
+        save(comment);
+        // 3.评论数先累加到redis，由定时任务合并后写回数据库
+        stringRedisTemplate.opsForHash().increment(BLOG_COMMENTS_PENDING_KEY, comment.getBlogId().toString(), 1);
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryCommentsOfBlog(Long blogId, Long lastTime, Long lastId) {
+        // 一级评论按(create_time, id)倒序，从上一页最后一条之后继续查
+        QueryChainWrapper<BlogComments> wrapper = query()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0);
+        if (lastTime != null && lastId != null) {
+            LocalDateTime time = LocalDateTimeUtil.of(lastTime);
+            wrapper.and(w -> w.lt("create_time", time)
+                    .or(o -> o.eq("create_time", time).lt("id", lastId)));
+        }
+        List<BlogComments> comments = wrapper
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        return Result.ok(toScrollResult(comments));
+    }
+
+    @Override
+    public Result queryRepliesOfParent(Long parentId, Long lastTime, Long lastId) {
+        // 回复按(create_time, id)正序，从上一页最后一条之后继续查
+        QueryChainWrapper<BlogComments> wrapper = query()
+                .eq("parent_id", parentId);
+        if (lastTime != null && lastId != null) {
+            LocalDateTime time = LocalDateTimeUtil.of(lastTime);
+            wrapper.and(w -> w.gt("create_time", time)
+                    .or(o -> o.eq("create_time", time).gt("id", lastId)));
+        }
+        List<BlogComments> replies = wrapper
+                .orderByAsc("create_time", "id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        return Result.ok(toScrollResult(replies));
+    }
+
+    @Override
+    public Result queryRepliesOfParents(List<Long> parentIds) {
+        if (parentIds == null || parentIds.isEmpty()) {
+            return Result.ok(Collections.emptyMap());
+        }
+        if (parentIds.size() > SystemConstants.MAX_PAGE_SIZE) {
+            return Result.fail("一次最多查询" + SystemConstants.MAX_PAGE_SIZE + "条评论的回复");
+        }
+        // 一次查询取出每条一级评论的前几条回复
+        List<BlogComments> replies = getBaseMapper()
+                .queryRepliesOfParents(parentIds, SystemConstants.COMMENT_REPLY_PREVIEW_SIZE);
+        fillCommentUsers(replies);
+        Map<Long, List<BlogComments>> result = new LinkedHashMap<>();
+        parentIds.forEach(id -> result.put(id, new ArrayList<>()));
+        replies.forEach(reply -> result.get(reply.getParentId()).add(reply));
+        return Result.ok(result);
+    }
+
+    /**
+     * 把redis中累积的评论数增量合并写回tb_blog，每篇博文每个周期只执行一次UPDATE
+     */
+    @Override
+    @Scheduled(fixedDelay = 5000)
+    public void flushCommentCount() {
+        String lockValue = UUID.randomUUID().toString(true);
+        Boolean isLock = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_BLOG_COMMENTS_KEY, lockValue, LOCK_BLOG_COMMENTS_TTL, TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(isLock)) {
+            return;
+        }
+        try {
+            // 1.上次写回失败时flushing中还有残留，先处理残留，否则把pending整体改名，新增量继续写入新的pending
+            if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_COMMENTS_FLUSHING_KEY))) {
+                if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_COMMENTS_PENDING_KEY))) {
+                    return;
+                }
+                stringRedisTemplate.renameIfAbsent(BLOG_COMMENTS_PENDING_KEY, BLOG_COMMENTS_FLUSHING_KEY);
+            }
+            // 2.给这一批增量分配批次id，断点续写时沿用同一个id
+            stringRedisTemplate.opsForHash().putIfAbsent(BLOG_COMMENTS_FLUSHING_KEY, FLUSH_BATCH_FIELD,
+                    UUID.randomUUID().toString(true));
+            Map<Object, Object> deltas = stringRedisTemplate.opsForHash().entries(BLOG_COMMENTS_FLUSHING_KEY);
+            String batchId = (String) deltas.remove(FLUSH_BATCH_FIELD);
+            // 3.逐篇博文写回数据库，写完一篇删除一篇，失败时下次从断点继续
+            for (Map.Entry<Object, Object> entry : deltas.entrySet()) {
+                applyCommentDelta(batchId, Long.valueOf(entry.getKey().toString()),
+                        Long.parseLong(entry.getValue().toString()));
+                stringRedisTemplate.opsForHash().delete(BLOG_COMMENTS_FLUSHING_KEY, entry.getKey());
+            }
+            // 4.整批写完，清理批次记录后再删除flushing，下个周期才会开始新的批次
+            ((BlogMapper) blogService.getBaseMapper()).deleteCommentFlush(batchId);
+            stringRedisTemplate.delete(BLOG_COMMENTS_FLUSHING_KEY);
+        } catch (Exception e) {
+            log.error("评论数写回数据库失败", e);
+        } finally {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(LOCK_BLOG_COMMENTS_KEY), lockValue);
+        }
+    }
+
+    /**
+     * 在同一个事务里记录批次并累加评论数。UPDATE提交后、HDEL之前宕机时，
+     * 下次重试插入批次记录会主键冲突，说明这篇博文在本批次已经写回过，直接跳过
+     */
+    private void applyCommentDelta(String batchId, Long blogId, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                ((BlogMapper) blogService.getBaseMapper()).insertCommentFlush(batchId, blogId);
+                blogService.update()
+                        .setSql("comments = IFNULL(comments, 0) + " + delta)
+                        .eq("id", blogId)
+                        .update();
+            });
+        } catch (DuplicateKeyException e) {
+            log.debug("博文{}的评论数已在批次{}写回", blogId, batchId);
+        }
+    }
+
+    private ScrollResult toScrollResult(List<BlogComments> comments) {
+        fillCommentUsers(comments);
+        ScrollResult r = new ScrollResult();
+        r.setList(comments);
+        if (!comments.isEmpty()) {
+            BlogComments last = comments.get(comments.size() - 1);
+            r.setMinTime(LocalDateTimeUtil.toEpochMilli(last.getCreateTime()));
+            r.setLastId(last.getId());
+        }
+        return r;
+    }
+
+    /**
+     * 批量查询评论用户，避免每条评论单独查一次用户
+     */
+    private void fillCommentUsers(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = comments.stream().map(BlogComments::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds)
+                .stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        comments.forEach(comment -> {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        });
+    }
 }
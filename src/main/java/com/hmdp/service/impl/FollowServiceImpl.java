@@ -1,11 +1,40 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.UserHolder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_LOADING_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_MARK_TTL;
+import static com.hmdp.utils.RedisConstants.FOLLOW_WRITING_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +46,192 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    private static final String FOLLOWEE_FIELD = "followee";
+    private static final String FANS_FIELD = "fans";
+
+    private static final DefaultRedisScript<Long> BEGIN_SCRIPT;
+    private static final DefaultRedisScript<Long> END_SCRIPT;
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT;
+    static {
+        BEGIN_SCRIPT = new DefaultRedisScript<>();
+        BEGIN_SCRIPT.setLocation(new ClassPathResource("follow_begin.lua"));
+        BEGIN_SCRIPT.setResultType(Long.class);
+        END_SCRIPT = new DefaultRedisScript<>();
+        END_SCRIPT.setLocation(new ClassPathResource("follow_end.lua"));
+        END_SCRIPT.setResultType(Long.class);
+        LOAD_SCRIPT = new DefaultRedisScript<>();
+        LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        LOAD_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        String key = FOLLOWS_KEY + userId;
+        boolean follow = BooleanUtil.isTrue(isFollow);
+        if (follow) {
+            // 1.已关注则直接返回，关注的用户必须存在
+            Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, followUserId.toString());
+            if (BooleanUtil.isTrue(isMember)) {
+                return Result.ok();
+            }
+            if (userService.getById(followUserId) == null) {
+                return Result.fail("用户不存在");
+            }
+        }
+        // 2.写数据库期间标记双方有写入，此时不会有加载完成
+        List<String> marks = Arrays.asList(
+                FOLLOW_LOADING_KEY + userId, FOLLOW_WRITING_KEY + userId,
+                FOLLOW_LOADING_KEY + followUserId, FOLLOW_WRITING_KEY + followUserId);
+        stringRedisTemplate.execute(BEGIN_SCRIPT, marks, FOLLOW_MARK_TTL.toString());
+        boolean success = false;
+        try {
+            if (follow) {
+                Follow record = new Follow();
+                record.setUserId(userId);
+                record.setFollowUserId(followUserId);
+                success = save(record);
+            } else {
+                success = remove(new QueryWrapper<Follow>()
+                        .eq("user_id", userId).eq("follow_user_id", followUserId));
+            }
+        } catch (DuplicateKeyException e) {
+            // 并发的关注请求已经写入记录，并由它更新关注集合和计数，按已关注处理
+        } finally {
+            // 3.更新已加载的关注集合和双方计数，结束写入标记
+            List<String> keys = new ArrayList<>(marks.size() + 3);
+            keys.add(key);
+            keys.add(FOLLOW_COUNT_KEY + userId);
+            keys.add(FOLLOW_COUNT_KEY + followUserId);
+            keys.addAll(marks);
+            long delta = success ? (follow ? 1L : -1L) : 0L;
+            stringRedisTemplate.execute(END_SCRIPT, keys, followUserId.toString(), String.valueOf(delta));
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        String key = FOLLOWS_KEY + userId;
+        // 1.命中关注集合，直接返回
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, followUserId.toString());
+        if (BooleanUtil.isTrue(isMember)) {
+            return Result.ok(true);
+        }
+        // 2.未命中，确认关注列表是否已经加载过
+        if (isFollowCacheLoaded(userId)) {
+            return Result.ok(false);
+        }
+        return Result.ok(followIds(userId).contains(followUserId.toString()));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        String key1 = FOLLOWS_KEY + userId;
+        String key2 = FOLLOWS_KEY + id;
+        // 1.求两个关注集合的交集
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
+        if (intersect == null || intersect.isEmpty()) {
+            // 2.交集为空，可能是关注列表尚未加载，加载后再求一次
+            if (isFollowCacheLoaded(userId) && isFollowCacheLoaded(id)) {
+                return Result.ok(Collections.emptyList());
+            }
+            intersect = followIds(userId);
+            intersect.retainAll(followIds(id));
+            if (intersect.isEmpty()) {
+                return Result.ok(Collections.emptyList());
+            }
+        }
+        // 3.查询共同关注的用户
+        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<UserDTO> users = userService.queryUserDTOs(ids);
+        return Result.ok(users);
+    }
+
+    @Override
+    public Result queryFollowCount(Long id) {
+        String countKey = FOLLOW_COUNT_KEY + id;
+        Map<Object, Object> counts = stringRedisTemplate.opsForHash().entries(countKey);
+        Map<String, Long> result = new HashMap<>(4);
+        if (counts.isEmpty()) {
+            FollowSnapshot snapshot = loadFollowCache(id);
+            if (snapshot != null) {
+                result.put(FOLLOWEE_FIELD, (long) snapshot.followIds.size());
+                result.put(FANS_FIELD, snapshot.fans);
+                return Result.ok(result);
+            }
+            counts = stringRedisTemplate.opsForHash().entries(countKey);
+        }
+        result.put(FOLLOWEE_FIELD, Long.valueOf(counts.getOrDefault(FOLLOWEE_FIELD, "0").toString()));
+        result.put(FANS_FIELD, Long.valueOf(counts.getOrDefault(FANS_FIELD, "0").toString()));
+        return Result.ok(result);
+    }
+
+    private boolean isFollowCacheLoaded(Long userId) {
+        return BooleanUtil.isTrue(stringRedisTemplate.hasKey(FOLLOW_COUNT_KEY + userId));
+    }
+
+    /**
+     * 用户关注的所有用户id，关注列表未加载时先加载
+     */
+    private Set<String> followIds(Long userId) {
+        FollowSnapshot snapshot = loadFollowCache(userId);
+        if (snapshot != null) {
+            return new HashSet<>(snapshot.followIds);
+        }
+        Set<String> members = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + userId);
+        return members == null ? new HashSet<>() : new HashSet<>(members);
+    }
+
+    /**
+     * 从数据库重建用户的关注集合和计数，计数hash同时作为已加载的标记。
+     * 集合和计数由脚本一次写入，加载期间有关注或取关时放弃写入，避免读到的旧数据覆盖增量更新，下次查询时重新加载
+     *
+     * @return 本次从数据库读取的数据，无论是否写入redis都可以直接使用；已经加载过时为null
+     */
+    private FollowSnapshot loadFollowCache(Long userId) {
+        if (isFollowCacheLoaded(userId)) {
+            return null;
+        }
+        // 1.先写入加载标识，再读数据库
+        String loadingKey = FOLLOW_LOADING_KEY + userId;
+        String token = UUID.randomUUID().toString(true);
+        stringRedisTemplate.opsForValue().set(loadingKey, token, FOLLOW_MARK_TTL, TimeUnit.SECONDS);
+        List<String> followIds = query().select("follow_user_id").eq("user_id", userId).list()
+                .stream()
+                .map(follow -> follow.getFollowUserId().toString())
+                .collect(Collectors.toList());
+        Integer fans = query().eq("follow_user_id", userId).count();
+        // 2.标识没有被写入请求删除时写入redis
+        List<String> args = new ArrayList<>(followIds.size() + 3);
+        args.add(token);
+        args.add(String.valueOf(followIds.size()));
+        args.add(String.valueOf(fans));
+        args.addAll(followIds);
+        stringRedisTemplate.execute(LOAD_SCRIPT,
+                Arrays.asList(FOLLOWS_KEY + userId, FOLLOW_COUNT_KEY + userId, loadingKey, FOLLOW_WRITING_KEY + userId),
+                args.toArray());
+        return new FollowSnapshot(followIds, fans);
+    }
+
+    private static class FollowSnapshot {
+        private final List<String> followIds;
+        private final long fans;
+
+        FollowSnapshot(List<String> followIds, long fans) {
+            this.followIds = followIds;
+            this.fans = fans;
+        }
+    }
 }
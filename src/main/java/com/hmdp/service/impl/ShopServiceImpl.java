@@ -5,30 +5,61 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_ITEM_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LIST_FILTER_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LIST_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LIST_TTL;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.KeysetCursor;
+import com.hmdp.utils.RedisBatch;
+import com.hmdp.utils.ReactiveCacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SystemConstants;
 import io.netty.util.internal.StringUtil;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -40,11 +71,52 @@ import java.util.concurrent.TimeUnit;
  */
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    private static final DefaultRedisScript<Long> LISTING_SCRIPT;
+    private static final DefaultRedisScript<Long> LISTING_LOAD_SCRIPT;
+    private static final DefaultRedisScript<Long> LISTING_FILTER_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> LISTING_SEEK_SCRIPT;
+    /**
+     * 列表缓存里的占位成员，排序值为-inf，保证没有商铺的类型也能缓存下来，按排序值查询时总是被排除
+     */
+    private static final String LISTING_PLACEHOLDER = "";
+    private static final double LISTING_MIN_SCORE = -Double.MAX_VALUE;
+    /**
+     * 列表成员是补零到固定长度的商铺id，排序值相同时redis按字典序排列成员，补零后就是按id排列，
+     * 游标(排序值, id)因此能精确定位
+     */
+    private static final int LISTING_MEMBER_WIDTH = 19;
+    /**
+     * 重建中的临时列表的过期时间，重建的请求中途失败时由redis清理
+     */
+    private static final long LISTING_BUILD_TTL_SECONDS = 60L;
+
+    static {
+        LISTING_SCRIPT = new DefaultRedisScript<>();
+        LISTING_SCRIPT.setLocation(new ClassPathResource("shop_listing.lua"));
+        LISTING_SCRIPT.setResultType(Long.class);
+        LISTING_LOAD_SCRIPT = new DefaultRedisScript<>();
+        LISTING_LOAD_SCRIPT.setLocation(new ClassPathResource("shop_listing_load.lua"));
+        LISTING_LOAD_SCRIPT.setResultType(Long.class);
+        LISTING_FILTER_SCRIPT = new DefaultRedisScript<>();
+        LISTING_FILTER_SCRIPT.setLocation(new ClassPathResource("shop_listing_filter.lua"));
+        LISTING_FILTER_SCRIPT.setResultType(Long.class);
+        LISTING_SEEK_SCRIPT = new DefaultRedisScript<>();
+        LISTING_SEEK_SCRIPT.setLocation(new ClassPathResource("shop_listing_seek.lua"));
+        LISTING_SEEK_SCRIPT.setResultType(List.class);
+    }
+
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ReactiveCacheClient reactiveCacheClient;
+
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
     public ShopServiceImpl(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
@@ -65,6 +137,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //        Shop shop = queryWithLogicExpire(id);
         Shop shop = cacheClient.queryWithLogicalExpire(
                 CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+        // 没有预热的商铺不在逻辑过期缓存里，走缓存穿透，数据库中也不存在时缓存空值
+        if (shop == null) {
+            shop = cacheClient.queryWithPassThrough(
+                    CACHE_SHOP_ITEM_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
 
         if (shop == null) {
             return Result.fail("店铺不存在");
@@ -72,6 +149,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Mono<Result> queryByIdReactive(Long id) {
+        // 与queryById相同，使用逻辑过期
+        return reactiveCacheClient.queryWithLogicalExpire(
+                        CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS)
+                .switchIfEmpty(Mono.defer(() -> reactiveCacheClient.queryWithPassThrough(
+                        CACHE_SHOP_ITEM_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES)))
+                .map(Result::ok)
+                .defaultIfEmpty(Result.fail("店铺不存在"));
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -79,16 +167,376 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺ID不能为空");
         }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在");
+        }
         // 先操作数据库
         updateById(shop);
-        String key = CACHE_SHOP_KEY + id;
-        // 让缓存失效，缓存更新
-        stringRedisTemplate.delete(key);
+        Shop current = getById(id);
+        // 事务提交后再处理缓存，回滚时缓存不受影响，提交前并发的查询也不会把旧数据重新写回缓存
+        afterCommit(() -> {
+            // 让缓存失效，缓存更新
+            stringRedisTemplate.delete(Arrays.asList(CACHE_SHOP_KEY + id, CACHE_SHOP_ITEM_KEY + id));
+            // 按更新后的销量、评分、评论数和均价调整列表缓存，类型变化时从原类型的列表移除
+            if (!current.getTypeId().equals(old.getTypeId())) {
+                patchListing(old.getTypeId(), old, false);
+            }
+            patchListing(current.getTypeId(), current, true);
+        });
         return Result.ok();
     }
 
     @Override
-    public Result queryShopByType() {
-        return null;
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 事务提交后加入已经加载的列表缓存，回滚时不会在列表里留下不存在的商铺
+        afterCommit(() -> patchListing(shop.getTypeId(), shop, true));
+        return Result.ok(shop.getId());
+    }
+
+    private static void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, String sort,
+                                  Long minPrice, Long maxPrice, boolean withTotal) {
+        ListingSort listingSort = ListingSort.of(sort);
+        if (listingSort == null) {
+            return Result.fail("不支持的排序方式");
+        }
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        long offset = (long) (Math.max(current, 1) - 1) * pageSize;
+        // 1.从列表缓存里取当前页的商铺id
+        Listing listing = new Listing(typeId.longValue(), listingSort, minPrice, maxPrice);
+        List<TypedTuple<String>> page = readListing(listing, offset, pageSize, null);
+        // 2.通过商铺缓存批量读取
+        List<Shop> shops = queryShops(page);
+        if (!withTotal) {
+            return Result.ok(shops);
+        }
+        // 3.总数也从列表缓存里计算
+        return Result.ok(shops, countListing(listing));
+    }
+
+    @Override
+    public Result scrollShopByType(Integer typeId, String sort, Long minPrice, Long maxPrice, String cursor) {
+        ListingSort listingSort = ListingSort.of(sort);
+        if (listingSort == null) {
+            return Result.fail("不支持的排序方式");
+        }
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 1.解析游标，第一页不传
+        KeysetCursor after = null;
+        if (StrUtil.isNotBlank(cursor)) {
+            after = KeysetCursor.decode(cursor);
+            if (after == null) {
+                return Result.fail("分页游标无效");
+            }
+        }
+        // 2.从列表缓存里取游标之后的商铺id，多取一条用来判断是否还有下一页
+        Listing listing = new Listing(typeId.longValue(), listingSort, minPrice, maxPrice);
+        List<TypedTuple<String>> page = readListing(listing, 0, pageSize + 1, after);
+        // 3.有下一页时返回最后一条记录的游标
+        String next = null;
+        if (page.size() > pageSize) {
+            page = page.subList(0, pageSize);
+            TypedTuple<String> last = page.get(pageSize - 1);
+            next = new KeysetCursor(last.getScore().longValue(), Long.parseLong(last.getValue())).encode();
+        }
+        return Result.ok(new CursorResult(queryShops(page), next));
+    }
+
+    @Override
+    public Result scrollShopByName(String name, String cursor) {
+        return scroll(query().like(StrUtil.isNotBlank(name), "name", name), cursor, SystemConstants.MAX_PAGE_SIZE);
+    }
+
+    /**
+     * 按id滚动分页：从游标之后继续查，不管翻到第几页都只扫描一页的数据，也不需要count
+     */
+    private Result scroll(QueryChainWrapper<Shop> wrapper, String cursor, int pageSize) {
+        // 1.解析游标，第一页不传
+        if (StrUtil.isNotBlank(cursor)) {
+            KeysetCursor after = KeysetCursor.decode(cursor);
+            if (after == null) {
+                return Result.fail("分页游标无效");
+            }
+            wrapper.gt("id", after.getId());
+        }
+        // 2.多查一条，用来判断是否还有下一页
+        List<Shop> shops = wrapper
+                .orderByAsc("id")
+                .last("LIMIT " + (pageSize + 1))
+                .list();
+        // 3.有下一页时返回最后一条记录的游标
+        String next = null;
+        if (shops.size() > pageSize) {
+            shops = shops.subList(0, pageSize);
+            Long lastId = shops.get(pageSize - 1).getId();
+            next = new KeysetCursor(lastId, lastId).encode();
+        }
+        return Result.ok(new CursorResult(shops, next));
+    }
+
+    @Override
+    public Mono<Result> queryShopByTypeReactive(Integer typeId, Integer current, String sort) {
+        ListingSort listingSort = ListingSort.of(sort);
+        if (listingSort == null) {
+            return Mono.just(Result.fail("不支持的排序方式"));
+        }
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        long offset = (long) (Math.max(current, 1) - 1) * pageSize;
+        String key = listingKey(typeId.longValue(), listingSort);
+        // 1.从列表缓存里取当前页的商铺id，列表不存在时在boundedElastic线程池重建后再读一次
+        return readListingReactive(key, listingSort.descending, offset, pageSize)
+                .flatMap(ids -> !ids.isEmpty() ? Mono.just(ids) : Mono
+                        .fromCallable(() -> loadListing(typeId.longValue(), listingSort))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .flatMap(loaded -> loaded
+                                ? readListingReactive(key, listingSort.descending, offset, pageSize)
+                                : Mono.just(ids)))
+                // 2.通过商铺缓存批量读取
+                .flatMapMany(ids -> reactiveCacheClient.queryBatchWithPassThrough(
+                        CACHE_SHOP_ITEM_KEY, ids, Shop.class, this::queryShopMap, CACHE_SHOP_TTL, TimeUnit.MINUTES))
+                .collectList()
+                .map(Result::ok);
+    }
+
+    private Mono<List<Long>> readListingReactive(String key, boolean desc, long offset, int count) {
+        Range<Double> range = Range.closed(LISTING_MIN_SCORE, Double.MAX_VALUE);
+        Limit limit = Limit.limit().offset((int) offset).count(count);
+        Flux<String> members = desc
+                ? reactiveStringRedisTemplate.opsForZSet().reverseRangeByScore(key, range, limit)
+                : reactiveStringRedisTemplate.opsForZSet().rangeByScore(key, range, limit);
+        return members.map(Long::valueOf).collectList();
+    }
+
+    private List<Shop> queryShops(List<TypedTuple<String>> page) {
+        if (page.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> shopIds = page.stream().map(tuple -> Long.valueOf(tuple.getValue())).collect(Collectors.toList());
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_SHOP_ITEM_KEY, shopIds, Shop.class, this::queryShopMap, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    private Map<Long, Shop> queryShopMap(List<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
+    private static String listingMember(Long shopId) {
+        return StrUtil.padPre(shopId.toString(), LISTING_MEMBER_WIDTH, '0');
+    }
+
+    private static String listingKey(Long typeId, ListingSort sort) {
+        return CACHE_SHOP_LIST_KEY + typeId + ":" + sort.key;
+    }
+
+    private static String filteredListingKey(Listing listing) {
+        return listingKey(listing.typeId, listing.sort) + ":price:" + listing.minPriceArg() + "-" + listing.maxPriceArg();
+    }
+
+    /**
+     * 读取列表缓存的一页，列表不存在时先重建
+     *
+     * @param after 游标，不为null时忽略offset，从游标之后开始取
+     */
+    private List<TypedTuple<String>> readListing(Listing listing, long offset, int count, KeysetCursor after) {
+        String key = resolveListing(listing);
+        List<TypedTuple<String>> page = readListing0(key, listing.sort.descending, offset, count, after);
+        if (page.isEmpty() && !listing.hasPriceRange() && loadListing(listing.typeId, listing.sort)) {
+            page = readListing0(key, listing.sort.descending, offset, count, after);
+        }
+        return page;
+    }
+
+    /**
+     * 返回要读取的列表key。带均价范围时，按类型、排序和范围在redis里筛选一次，结果缓存一小段时间，
+     * 之后的分页和不带范围时一样按排名读取，不再每页重新筛选和排序
+     */
+    private String resolveListing(Listing listing) {
+        if (!listing.hasPriceRange()) {
+            return listingKey(listing.typeId, listing.sort);
+        }
+        String key = filteredListingKey(listing);
+        if (filterListing(listing, key) < 0) {
+            // 排序列表或均价列表还没有加载
+            loadListing(listing.typeId, listing.sort);
+            loadListing(listing.typeId, ListingSort.PRICE);
+            filterListing(listing, key);
+        }
+        return key;
+    }
+
+    private long filterListing(Listing listing, String key) {
+        Long result = stringRedisTemplate.execute(LISTING_FILTER_SCRIPT,
+                Arrays.asList(listingKey(listing.typeId, listing.sort), listingKey(listing.typeId, ListingSort.PRICE), key),
+                listing.minPriceArg(), listing.maxPriceArg(), String.valueOf(CACHE_SHOP_LIST_FILTER_TTL));
+        return result == null ? -1L : result;
+    }
+
+    private List<TypedTuple<String>> readListing0(String key, boolean desc, long offset, int count, KeysetCursor after) {
+        if (after != null) {
+            return seekListing(key, desc, count, after);
+        }
+        ZSetOperations<String, String> zSet = stringRedisTemplate.opsForZSet();
+        Set<TypedTuple<String>> tuples = desc
+                ? zSet.reverseRangeByScoreWithScores(key, LISTING_MIN_SCORE, Double.MAX_VALUE, offset, count)
+                : zSet.rangeByScoreWithScores(key, LISTING_MIN_SCORE, Double.MAX_VALUE, offset, count);
+        if (tuples == null) {
+            return Collections.emptyList();
+        }
+        return tuples.stream()
+                .filter(tuple -> !LISTING_PLACEHOLDER.equals(tuple.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 按(排序值, id)定位到游标之后的位置再取一页，不依赖游标对应的商铺当前的排名，
+     * 商铺的排序值变化或已经移除时也不会重复或遗漏
+     */
+    private List<TypedTuple<String>> seekListing(String key, boolean desc, int count, KeysetCursor after) {
+        List<?> values = stringRedisTemplate.execute(LISTING_SEEK_SCRIPT, Collections.singletonList(key),
+                desc ? "1" : "0", String.valueOf(after.getSortValue()), listingMember(after.getId()), String.valueOf(count));
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        List<TypedTuple<String>> tuples = new ArrayList<>(values.size() / 2);
+        for (int i = 0; i + 1 < values.size(); i += 2) {
+            String member = values.get(i).toString();
+            if (!LISTING_PLACEHOLDER.equals(member)) {
+                tuples.add(new DefaultTypedTuple<>(member, Double.valueOf(values.get(i + 1).toString())));
+            }
+        }
+        return tuples;
+    }
+
+    private long countListing(Listing listing) {
+        // 列表长度，不包括占位成员
+        Long size = stringRedisTemplate.opsForZSet().zCard(resolveListing(listing));
+        return size == null ? 0L : Math.max(size - 1, 0L);
+    }
+
+    /**
+     * 列表缓存不存在时，按数据库重建一个类型在一种排序下的商铺id列表。
+     * 先写入临时列表，再在列表仍不存在时改名为正式列表，并发重建时先完成的生效，
+     * 后完成的不会用更早读到的数据覆盖已经被增量修改过的列表
+     *
+     * @return 列表原本不存在，需要重新读取
+     */
+    private boolean loadListing(Long typeId, ListingSort sort) {
+        String key = listingKey(typeId, sort);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return false;
+        }
+        List<Shop> shops = (sort == ListingSort.ID ? query().select("id") : query().select("id", sort.column))
+                .eq("type_id", typeId)
+                .list();
+        // 1.写入临时列表
+        String buildKey = key + ":build:" + UUID.randomUUID();
+        RedisBatch batch = RedisBatch.pipeline(stringRedisTemplate)
+                .zAdd(buildKey, Double.NEGATIVE_INFINITY, LISTING_PLACEHOLDER);
+        for (Shop shop : shops) {
+            Number value = sort.value.apply(shop);
+            if (value != null) {
+                batch.zAdd(buildKey, value.doubleValue(), listingMember(shop.getId()));
+            }
+        }
+        batch.expire(buildKey, LISTING_BUILD_TTL_SECONDS, TimeUnit.SECONDS).execute();
+        // 2.正式列表仍不存在时改名
+        stringRedisTemplate.execute(LISTING_LOAD_SCRIPT, Arrays.asList(key, buildKey),
+                String.valueOf(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_LIST_TTL)));
+        return true;
+    }
+
+    /**
+     * 增量维护一个类型已经加载的所有列表缓存，列表不存在时等下次查询重建
+     *
+     * @param add true：按商铺当前的销量、评分等更新排序值；false：从列表移除
+     */
+    private void patchListing(Long typeId, Shop shop, boolean add) {
+        if (typeId == null || shop == null || shop.getId() == null) {
+            return;
+        }
+        ListingSort[] sorts = ListingSort.values();
+        List<String> keys = new ArrayList<>(sorts.length);
+        String[] args = new String[sorts.length + 1];
+        args[0] = listingMember(shop.getId());
+        for (int i = 0; i < sorts.length; i++) {
+            keys.add(listingKey(typeId, sorts[i]));
+            // 排序值为空的商铺不在这个列表里，例如没有均价
+            Number value = add ? sorts[i].value.apply(shop) : null;
+            args[i + 1] = value == null ? "" : value.toString();
+        }
+        stringRedisTemplate.execute(LISTING_SCRIPT, keys, (Object[]) args);
+    }
+
+    /**
+     * 商铺列表的排序方式，每种排序在每个类型下对应一个列表缓存
+     */
+    private enum ListingSort {
+        ID("id", false, Shop::getId),
+        SOLD("sold", true, Shop::getSold),
+        SCORE("score", true, Shop::getScore),
+        COMMENTS("comments", true, Shop::getComments),
+        PRICE("avg_price", false, Shop::getAvgPrice);
+
+        private final String key = name().toLowerCase();
+        private final String column;
+        private final boolean descending;
+        private final Function<Shop, Number> value;
+
+        ListingSort(String column, boolean descending, Function<Shop, Number> value) {
+            this.column = column;
+            this.descending = descending;
+            this.value = value;
+        }
+
+        static ListingSort of(String sort) {
+            for (ListingSort listingSort : values()) {
+                if (listingSort.key.equalsIgnoreCase(sort)) {
+                    return listingSort;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 一次列表查询的条件
+     */
+    private static final class Listing {
+        private final Long typeId;
+        private final ListingSort sort;
+        private final Long minPrice;
+        private final Long maxPrice;
+
+        private Listing(Long typeId, ListingSort sort, Long minPrice, Long maxPrice) {
+            this.typeId = typeId;
+            this.sort = sort;
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+        }
+
+        private boolean hasPriceRange() {
+            return minPrice != null || maxPrice != null;
+        }
+
+        private String minPriceArg() {
+            return minPrice == null ? "" : minPrice.toString();
+        }
+
+        private String maxPriceArg() {
+            return maxPrice == null ? "" : maxPrice.toString();
+        }
     }
 }
@@ -0,0 +1,248 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int ARCHIVE_BATCH_SIZE = 1000;
+    /**
+     * 从数据库追溯已归档的连续签到时，每次查询的天数
+     */
+    private static final int STREAK_PAGE_SIZE = 100;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Override
+    public Result sign() {
+        // 1.获取当前登录用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        // 2.写入redis SETBIT key offset 1，offset从0开始
+        String key = signKey(userId, YearMonth.from(now));
+        stringRedisTemplate.opsForValue().setBit(key, now.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate date = LocalDate.now();
+        int streak = 0;
+        while (true) {
+            YearMonth yearMonth = YearMonth.from(date);
+            String key = signKey(userId, yearMonth);
+            // 1.位图已归档的月份，从数据库继续往前追溯
+            if (isArchived(yearMonth) && !BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+                streak += archivedStreak(userId, date);
+                break;
+            }
+            // 2.取出本月截止到date的签到记录，BITFIELD key GET u{day} 0
+            int day = date.getDayOfMonth();
+            List<Long> result = stringRedisTemplate.opsForValue().bitField(
+                    key,
+                    BitFieldSubCommands.create()
+                            .get(BitFieldSubCommands.BitFieldType.unsigned(day)).valueAt(0)
+            );
+            if (result == null || result.isEmpty() || result.get(0) == null) {
+                break;
+            }
+            // 3.从最低位（即date当天）开始，统计连续为1的位数
+            long num = result.get(0);
+            int count = 0;
+            while ((num & 1) == 1) {
+                count++;
+                num >>>= 1;
+            }
+            streak += count;
+            // 4.本月没有断签，继续统计上个月月底
+            if (count < day) {
+                break;
+            }
+            date = date.withDayOfMonth(1).minusDays(1);
+        }
+        return Result.ok(streak);
+    }
+
+    /**
+     * 从tb_sign统计截止到date（含）的连续签到天数，按日期倒序分批读取，遇到断签就停止
+     */
+    private int archivedStreak(Long userId, LocalDate date) {
+        int streak = 0;
+        LocalDate expected = date;
+        while (true) {
+            List<Sign> signs = query()
+                    .select("date")
+                    .eq("user_id", userId)
+                    .le("date", expected)
+                    .orderByDesc("date")
+                    .last("LIMIT " + STREAK_PAGE_SIZE)
+                    .list();
+            for (Sign sign : signs) {
+                if (!expected.equals(sign.getDate())) {
+                    return streak;
+                }
+                streak++;
+                expected = expected.minusDays(1);
+            }
+            if (signs.size() < STREAK_PAGE_SIZE) {
+                return streak;
+            }
+        }
+    }
+
+    /**
+     * 两个月前及更早的月份会被归档到数据库
+     */
+    private static boolean isArchived(YearMonth yearMonth) {
+        return yearMonth.isBefore(YearMonth.now().minusMonths(1));
+    }
+
+    @Override
+    public Result queryMonthSignCount(String month) {
+        Long userId = UserHolder.getUser().getId();
+        YearMonth yearMonth;
+        try {
+            yearMonth = StrUtil.isBlank(month) ? YearMonth.now() : YearMonth.parse(month, MONTH_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return Result.fail("月份格式错误");
+        }
+        String key = signKey(userId, yearMonth);
+        // 1.已归档的月份从数据库统计
+        if (isArchived(yearMonth) && !BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+            Integer count = query()
+                    .eq("user_id", userId)
+                    .eq("year", yearMonth.getYear())
+                    .eq("month", yearMonth.getMonthValue())
+                    .count();
+            return Result.ok(count);
+        }
+        // 2.BITCOUNT key
+        Long count = stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    /**
+     * 定时把两个月前的签到位图批量转存到tb_sign，默认关闭
+     */
+    @Scheduled(cron = "${hmdp.sign.archive-cron:-}")
+    public void archiveExpiredMonth() {
+        archive(YearMonth.now().minusMonths(2));
+    }
+
+    @Override
+    public void archive(YearMonth month) {
+        String suffix = ":" + month.format(MONTH_FORMATTER);
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*" + suffix).count(ARCHIVE_BATCH_SIZE).build();
+        List<Sign> signs = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<String> scanned = stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> list = new ArrayList<>();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                cursor.forEachRemaining(key -> list.add(new String(key, StandardCharsets.UTF_8)));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return list;
+        });
+        if (scanned == null || scanned.isEmpty()) {
+            return;
+        }
+        for (String key : scanned) {
+            // 1.解析用户id，读取整张位图
+            Long userId = Long.valueOf(StrUtil.subBetween(key, USER_SIGN_KEY, suffix));
+            byte[] bytes = stringRedisTemplate.execute(
+                    (RedisCallback<byte[]>) connection -> connection.get(key.getBytes(StandardCharsets.UTF_8)));
+            if (bytes != null) {
+                // 2.位图第n位（高位在前）表示第n+1天
+                for (int day = 1; day <= month.lengthOfMonth(); day++) {
+                    int index = (day - 1) >> 3;
+                    if (index < bytes.length && (bytes[index] & (0x80 >>> ((day - 1) & 7))) != 0) {
+                        signs.add(new Sign()
+                                .setUserId(userId)
+                                .setYear(month.getYear())
+                                .setMonth(month.getMonthValue())
+                                .setDate(month.atDay(day))
+                                .setIsBackup(false));
+                    }
+                }
+            }
+            keys.add(key);
+            // 3.攒够一批写入数据库后删除对应的位图
+            if (signs.size() >= ARCHIVE_BATCH_SIZE) {
+                flushArchive(month, signs, keys);
+            }
+        }
+        flushArchive(month, signs, keys);
+        log.info("签到数据归档完成，月份：{}，用户数：{}", month, scanned.size());
+    }
+
+    /**
+     * 在一个事务里先删除这批用户当月已有的记录再写入，写入后、删除位图前中断时重新归档不会重复
+     */
+    private void flushArchive(YearMonth month, List<Sign> signs, List<String> keys) {
+        if (!signs.isEmpty()) {
+            Set<Long> userIds = signs.stream().map(Sign::getUserId).collect(Collectors.toSet());
+            transactionTemplate.executeWithoutResult(status -> {
+                remove(new QueryWrapper<Sign>()
+                        .in("user_id", userIds)
+                        .eq("year", month.getYear())
+                        .eq("month", month.getMonthValue()));
+                saveBatch(signs, ARCHIVE_BATCH_SIZE);
+            });
+        }
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+        }
+        signs.clear();
+        keys.clear();
+    }
+
+    private String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+}
@@ -1,11 +1,24 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserInfoDTO;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.UserHolder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_USER_INFO_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +30,47 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Override
+    public Result queryUserInfo(Long userId) {
+        UserInfoDTO info = cacheClient.queryWithPassThrough(
+                CACHE_USER_INFO_KEY, userId, UserInfoDTO.class, this::queryUserInfoDTO, CACHE_USER_TTL, TimeUnit.MINUTES);
+        // 没有详情，应该是第一次查看详情
+        return info == null ? Result.ok() : Result.ok(info);
+    }
+
+    @Override
+    public Result updateUserInfo(UserInfo userInfo) {
+        // 1.只能修改自己的资料，粉丝数、积分、等级等字段不允许直接修改
+        Long userId = UserHolder.getUser().getId();
+        userInfo.setUserId(userId);
+        userInfo.setFans(null);
+        userInfo.setFollowee(null);
+        userInfo.setCredits(null);
+        userInfo.setLevel(null);
+        userInfo.setCreateTime(null);
+        userInfo.setUpdateTime(null);
+        // 2.先操作数据库，还没有详情则新增，主键就是用户id
+        if (!updateById(userInfo)) {
+            try {
+                save(userInfo);
+            } catch (DuplicateKeyException e) {
+                // 同一用户并发的第一次修改已经新增了详情，改为更新
+                updateById(userInfo);
+            }
+        }
+        // 3.让缓存失效
+        stringRedisTemplate.delete(CACHE_USER_INFO_KEY + userId);
+        return Result.ok();
+    }
+
+    private UserInfoDTO queryUserInfoDTO(Long userId) {
+        UserInfo info = getById(userId);
+        return info == null ? null : BeanUtil.copyProperties(info, UserInfoDTO.class);
+    }
 }
@@ -1,9 +1,9 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -11,12 +11,19 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginUserCache;
+import com.hmdp.utils.RedisBatch;
+import com.hmdp.utils.SignedTokenClient;
+import com.hmdp.utils.SmsClient;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 import static com.hmdp.utils.RedisConstants.LOGIN_CODE_KEY;
 import static com.hmdp.utils.RedisConstants.LOGIN_CODE_TTL;
 import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
@@ -25,8 +32,11 @@ import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -44,6 +54,18 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private LoginUserCache loginUserCache;
+
+    @Resource
+    private SignedTokenClient signedTokenClient;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SmsClient smsClient;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 校验手机号
@@ -51,9 +73,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             // 不通过返回报错
             return Result.fail("手机号格式错误");
         }
-        // 通过发送验证码
+        // 通过生成验证码
         String code = RandomUtil.randomNumbers(6);
-        log.info("发送短信验证码成功，验证码：{}", code);
 
         // 保存验证码到session
 //        session.setAttribute("code", code);
@@ -61,6 +82,11 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 保存验证码到redis
         stringRedisTemplate.opsForValue().set(LOGIN_CODE_KEY + phone, code, LOGIN_CODE_TTL, TimeUnit.MINUTES);
 
+        // 短信入队异步发送，不等待短信网关
+        if (!smsClient.send(phone, StrUtil.format("您的验证码是{}，{}分钟内有效", code, LOGIN_CODE_TTL))) {
+            return Result.fail("短信发送繁忙，请稍后再试");
+        }
+
         // 返回成功
         return Result.ok();
     }
@@ -96,27 +122,89 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         // 保存用户到session
 //        session.setAttribute("user", BeanUtil.copyProperties(user, UserDTO.class));
 
+        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+        // 签名token模式，用户信息直接放在token里
+        if (signedTokenClient.isEnabled()) {
+            return Result.ok(signedTokenClient.issue(userDTO));
+        }
+
         // 保存用户到redis
         String token = UUID.randomUUID().toString(true);
         String tokenKey = LOGIN_USER_KEY + token;
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
 
-        // 将UserDTO转换为Map,putAll接受map格式
-        Map<String, Object> stringObjectMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        stringRedisTemplate.opsForHash().putAll(tokenKey, stringObjectMap);
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 将UserDTO转换为Map，写入hash和设置有效期在一个事务中一次往返完成
+        Map<String, String> userMap = new HashMap<>(4);
+        userMap.put("id", userDTO.getId().toString());
+        if (userDTO.getNickName() != null) {
+            userMap.put("nickName", userDTO.getNickName());
+        }
+        if (userDTO.getIcon() != null) {
+            userMap.put("icon", userDTO.getIcon());
+        }
+        RedisBatch.transaction(stringRedisTemplate)
+                .hMSet(tokenKey, userMap)
+                .expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES)
+                .execute();
 
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.ok();
+        }
+        // 签名token模式，校验通过的token加入黑名单
+        if (signedTokenClient.isEnabled()) {
+            if (signedTokenClient.verify(token) != null) {
+                signedTokenClient.revoke(token);
+            }
+            return Result.ok();
+        }
+        // 删除redis中的登录信息，同时失效本地缓存
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        loginUserCache.invalidate(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryUserById(Long id) {
+        UserDTO user = cacheClient.queryWithPassThrough(
+                CACHE_USER_KEY, id, UserDTO.class, this::queryUserDTO, CACHE_USER_TTL, TimeUnit.MINUTES);
+        if (user == null) {
+            return Result.fail("用户不存在");
+        }
+        return Result.ok(user);
+    }
+
+    /**
+     * 批量查询用户的公开信息，用于粉丝、关注、点赞等用户列表
+     */
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, ids, UserDTO.class, this::queryUserDTOs0, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    private UserDTO queryUserDTO(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    private Map<Long, UserDTO> queryUserDTOs0(List<Long> ids) {
+        return listByIds(ids)
+                .stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         save(user);
+        // 新id之前可能被当作不存在的用户缓存了空值
+        stringRedisTemplate.delete(CACHE_USER_KEY + user.getId());
         return user;
     }
 }
@@ -1,20 +1,491 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillMetrics;
+import com.hmdp.utils.SeckillMetrics.WriteResult;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_DEAD_LETTER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_KEY;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 秒杀有两种模式，由hmdp.seckill.mode配置：
+ * <p>
+ * redis：lua脚本在redis里扣库存、判断一人一单，订单写入stream后由后台线程异步落库；
+ * <p>
+ * db：不依赖redis里的库存，同步执行条件update扣减库存。进程内按剩余库存发放许可，抢完后直接拒绝，
+ * 同一用户的请求按userId哈希分段加锁串行执行，数据库只承受和库存数量相当的写请求。
+ * 补充库存时本实例的许可立即失效，其它实例的许可抢完后按数据库库存定期重新发放
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> REVERT_SCRIPT;
+    private static final int READ_COUNT = 10;
+    private static final Duration READ_BLOCK = Duration.ofSeconds(2);
+    private static final String MODE_DB = "db";
+    /**
+     * 一条订单消息最多处理的次数，超过后转入死信stream，不再阻塞pending list
+     */
+    private static final int MAX_DELIVERIES = 5;
+    /**
+     * 用户锁的分段数，必须是2的幂
+     */
+    private static final int USER_LOCK_STRIPES = 256;
+    /**
+     * 许可抢完后，至少间隔这么久才按数据库库存重新发放一次
+     */
+    private static final long ADMISSION_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        REVERT_SCRIPT = new DefaultRedisScript<>();
+        REVERT_SCRIPT.setLocation(new ClassPathResource("seckill_revert.lua"));
+        REVERT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private SeckillMetrics seckillMetrics;
+
+    @Value("${hmdp.seckill.consumer:}")
+    private String consumerName;
+
+    @Value("${server.port:8080}")
+    private String serverPort;
+
+    @Value("${hmdp.seckill.mode:redis}")
+    private String mode;
+
+    private boolean dbMode;
+
+    /**
+     * 秒杀券的开始结束时间，创建后不会修改，缓存在本地避免每次请求查库
+     */
+    private final Map<Long, SeckillVoucher> vouchers = new ConcurrentHashMap<>();
+    private final ExecutorService orderExecutor =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-", true));
+    private volatile boolean running = true;
+    /**
+     * db模式下每张秒杀券的进程内许可，数量为发放时的剩余库存
+     */
+    private final Map<Long, Admission> admissions = new ConcurrentHashMap<>();
+    private final Lock[] userLocks = new Lock[USER_LOCK_STRIPES];
+
+    {
+        for (int i = 0; i < USER_LOCK_STRIPES; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        dbMode = MODE_DB.equalsIgnoreCase(mode);
+        if (dbMode) {
+            return;
+        }
+        // 未配置消费者名称时用主机名加端口，多实例各自消费，重启后仍能处理自己未确认的消息
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = NetUtil.getLocalHostName() + ":" + serverPort;
+        }
+        createGroupIfAbsent();
+        orderExecutor.submit(this::consumeLoop);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        orderExecutor.shutdown();
+        orderExecutor.awaitTermination(READ_BLOCK.getSeconds() + 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        long start = System.nanoTime();
+        // 1.校验秒杀时间
+        SeckillVoucher voucher = vouchers.computeIfAbsent(voucherId, seckillVoucherService::getById);
+        if (voucher == null) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.CLOSED, start);
+            return Result.fail("秒杀券不存在");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime() != null && voucher.getBeginTime().isAfter(now)) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.CLOSED, start);
+            return Result.fail("秒杀尚未开始");
+        }
+        if (voucher.getEndTime() != null && voucher.getEndTime().isBefore(now)) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.CLOSED, start);
+            return Result.fail("秒杀已经结束");
+        }
+        Long userId = UserHolder.getUser().getId();
+        if (dbMode) {
+            return seckillWithDatabase(voucherId, userId, start);
+        }
+        // 2.在redis里判断库存和一人一单，有资格的写入订单消息
+        long orderId = redisIdWorker.nextId("order");
+        int r = executeSeckill(voucherId, userId, orderId);
+        if (r == 3) {
+            // 2.1.redis里没有库存，可能是redis重启过，从数据库重新加载一次
+            seckillMetrics.recordReload();
+            loadStock(voucherId);
+            r = executeSeckill(voucherId, userId, orderId);
+        }
+        if (r == 2) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.DUPLICATE, start);
+            return Result.fail("不能重复下单");
+        }
+        if (r != 0) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.SOLD_OUT, start);
+            return Result.fail("库存不足");
+        }
+        // 3.订单由后台线程异步写入数据库
+        seckillMetrics.recordRequest(SeckillMetrics.Result.OK, start);
+        return Result.ok(orderId);
+    }
+
+    @Override
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
+        writeOrder(voucherOrder);
+    }
+
+    @Override
+    public void resetAdmission(Long voucherId) {
+        admissions.remove(voucherId);
+    }
+
+    private Result seckillWithDatabase(Long voucherId, Long userId, long start) {
+        // 1.已经下过单的用户直接拒绝，不占用许可，也不会在库存抢完后被误报为库存不足
+        if (query().eq("user_id", userId).eq("voucher_id", voucherId).count() > 0) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.DUPLICATE, start);
+            return Result.fail("不能重复下单");
+        }
+        // 2.进程内许可已发完，说明库存已被抢完，不再访问数据库
+        Semaphore admission = acquireAdmission(voucherId);
+        if (admission == null) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.SOLD_OUT, start);
+            return Result.fail("库存不足");
+        }
+        // 3.同一用户的请求串行执行，保证一人一单的查询和下单之间没有并发
+        VoucherOrder voucherOrder = new VoucherOrder()
+                .setId(redisIdWorker.nextId("order"))
+                .setUserId(userId)
+                .setVoucherId(voucherId);
+        Lock lock = userLocks[Long.hashCode(userId) & (USER_LOCK_STRIPES - 1)];
+        long lockStart = System.nanoTime();
+        lock.lock();
+        WriteResult result;
+        try {
+            seckillMetrics.recordLockWait(lockStart);
+            result = writeOrder(voucherOrder);
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        // 4.并发的重复下单归还许可；数据库库存不足说明其他实例已经抢完，许可不再归还
+        if (result == WriteResult.DUPLICATE) {
+            admission.release();
+            seckillMetrics.recordRequest(SeckillMetrics.Result.DUPLICATE, start);
+            return Result.fail("不能重复下单");
+        }
+        if (result == WriteResult.SOLD_OUT) {
+            seckillMetrics.recordRequest(SeckillMetrics.Result.SOLD_OUT, start);
+            return Result.fail("库存不足");
+        }
+        seckillMetrics.recordRequest(SeckillMetrics.Result.OK, start);
+        return Result.ok(voucherOrder.getId());
+    }
+
+    /**
+     * 获取一个许可，许可已发完且距上次发放超过ADMISSION_REFRESH_NANOS时，按数据库库存重新发放一次
+     *
+     * @return 获得许可的信号量，用于归还；没有许可时为null
+     */
+    private Semaphore acquireAdmission(Long voucherId) {
+        Admission admission = admissions.computeIfAbsent(voucherId, this::newAdmission);
+        if (admission.permits.tryAcquire()) {
+            return admission.permits;
+        }
+        if (System.nanoTime() - admission.issuedAt < ADMISSION_REFRESH_NANOS) {
+            return null;
+        }
+        // 并发刷新时只有一个请求替换成功，其它请求使用替换后的许可
+        Admission refreshed = admissions.computeIfPresent(voucherId,
+                (id, current) -> current == admission ? newAdmission(id) : current);
+        return refreshed != null && refreshed.permits.tryAcquire() ? refreshed.permits : null;
+    }
+
+    private Admission newAdmission(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        return new Admission(voucher == null || voucher.getStock() == null ? 0 : Math.max(0, voucher.getStock()));
+    }
+
+    private static class Admission {
+        private final Semaphore permits;
+        private final long issuedAt = System.nanoTime();
+
+        Admission(int permits) {
+            this.permits = new Semaphore(permits);
+        }
+    }
+
+    /**
+     * 在一个事务里校验一人一单、扣减库存并创建订单。
+     * 一人一单最终由(user_id, voucher_id)唯一索引保证，查询和进程内的用户锁只是为了少走一次失败的写入
+     */
+    private WriteResult writeOrder(VoucherOrder voucherOrder) {
+        Long userId = voucherOrder.getUserId();
+        Long voucherId = voucherOrder.getVoucherId();
+        long start = System.nanoTime();
+        WriteResult result;
+        try {
+            result = transactionTemplate.execute(status -> createOrder(voucherOrder));
+        } catch (DuplicateKeyException e) {
+            // 并发下单时唯一索引冲突，事务已回滚，扣减的库存一并撤销
+            log.warn("用户已经购买过该秒杀券，userId：{}，voucherId：{}", userId, voucherId);
+            result = WriteResult.DUPLICATE;
+        }
+        seckillMetrics.recordWrite(result, start);
+        return result;
+    }
+
+    private WriteResult createOrder(VoucherOrder voucherOrder) {
+        Long userId = voucherOrder.getUserId();
+        Long voucherId = voucherOrder.getVoucherId();
+        // 1.一人一单，消息重复投递时直接忽略
+        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
+        if (count > 0) {
+            log.warn("用户已经购买过该秒杀券，userId：{}，voucherId：{}", userId, voucherId);
+            return WriteResult.DUPLICATE;
+        }
+        // 2.扣减库存，stock > 0兜底防止超卖
+        long updateStart = System.nanoTime();
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherId).gt("stock", 0)
+                .update();
+        seckillMetrics.recordStockUpdate(updateStart);
+        if (!success) {
+            log.error("秒杀券库存不足，voucherId：{}", voucherId);
+            return WriteResult.SOLD_OUT;
+        }
+        // 3.创建订单
+        save(voucherOrder);
+        return WriteResult.CREATED;
+    }
+
+    private int executeSeckill(Long voucherId, Long userId, long orderId) {
+        Long r = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_STREAM_KEY),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        return r == null ? 1 : r.intValue();
+    }
+
+    private void revertSeckill(VoucherOrder voucherOrder) {
+        Long voucherId = voucherOrder.getVoucherId();
+        stringRedisTemplate.execute(REVERT_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId),
+                voucherOrder.getUserId().toString());
+    }
+
+    /**
+     * 按数据库重建redis里的库存和已下单用户，库存key已存在时不覆盖
+     */
+    private void loadStock(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return;
+        }
+        List<String> userIds = query().select("user_id").eq("voucher_id", voucherId).list()
+                .stream()
+                .map(order -> order.getUserId().toString())
+                .collect(Collectors.toList());
+        if (!userIds.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(SECKILL_ORDER_KEY + voucherId, userIds.toArray(new String[0]));
+        }
+        stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId, voucher.getStock().toString());
+    }
+
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisConnection connection) -> connection.streamCommands().xGroupCreate(
+                    SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8), SECKILL_STREAM_GROUP, ReadOffset.from("0"), true));
+        } catch (DataAccessException e) {
+            // 消费组已存在
+            log.debug("订单消费组已存在：{}", e.getMessage());
+        }
+    }
+
+    private void consumeLoop() {
+        Consumer consumer = Consumer.from(SECKILL_STREAM_GROUP, consumerName);
+        // 1.启动时先处理上次没有确认的消息
+        boolean pending = true;
+        while (running) {
+            try {
+                ReadOffset offset = pending ? ReadOffset.from("0") : ReadOffset.lastConsumed();
+                StreamReadOptions options = StreamReadOptions.empty().count(READ_COUNT);
+                if (!pending) {
+                    options = options.block(READ_BLOCK);
+                }
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                        .read(consumer, options, StreamOffset.create(SECKILL_STREAM_KEY, offset));
+                if (records == null || records.isEmpty()) {
+                    // 2.pending list处理完后切换到读取新消息
+                    pending = false;
+                    continue;
+                }
+                Map<RecordId, Long> deliveries = new HashMap<>();
+                if (pending) {
+                    seckillMetrics.recordRedeliveries(records.size());
+                    deliveries = deliveryCounts(consumer, records);
+                }
+                // 3.逐条创建订单并确认，一条失败不影响同一批的其它消息
+                boolean failed = false;
+                for (MapRecord<String, Object, Object> record : records) {
+                    if (deliveries.getOrDefault(record.getId(), 1L) > MAX_DELIVERIES) {
+                        deadLetter(record);
+                        continue;
+                    }
+                    try {
+                        consume(record);
+                    } catch (Exception e) {
+                        // 失败的消息留在pending list，稍后重新处理
+                        log.error("处理订单消息异常，id：{}", record.getId(), e);
+                        seckillMetrics.recordFailure();
+                        failed = true;
+                    }
+                }
+                if (failed) {
+                    pending = true;
+                    sleepQuietly();
+                }
+            } catch (Exception e) {
+                // 4.读取消息失败，稍后从pending list重新处理
+                log.error("处理订单消息异常", e);
+                seckillMetrics.recordFailure();
+                pending = true;
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void consume(MapRecord<String, Object, Object> record) {
+        seckillMetrics.recordLag(record.getId().getTimestamp());
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+        if (writeOrder(voucherOrder) == WriteResult.SOLD_OUT) {
+            // 数据库库存不足，归还redis库存并移出已下单用户，然后再确认消息
+            revertSeckill(voucherOrder);
+        }
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, record.getId());
+    }
+
+    /**
+     * 查询这批pending消息已经投递的次数，包含本次读取
+     */
+    private Map<RecordId, Long> deliveryCounts(Consumer consumer, List<MapRecord<String, Object, Object>> records) {
+        Range<String> range = Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue());
+        Map<RecordId, Long> deliveries = new HashMap<>(records.size());
+        for (PendingMessage message : stringRedisTemplate.opsForStream()
+                .pending(SECKILL_STREAM_KEY, consumer, range, (long) records.size())) {
+            deliveries.put(message.getId(), message.getTotalDeliveryCount());
+        }
+        return deliveries;
+    }
+
+    /**
+     * 多次处理都失败的消息写入死信stream后确认，原样保留订单数据供人工处理，redis里的库存和已下单用户不做撤销
+     */
+    private void deadLetter(MapRecord<String, Object, Object> record) {
+        Map<String, String> value = new LinkedHashMap<>();
+        record.getValue().forEach((field, v) -> value.put(field.toString(), String.valueOf(v)));
+        value.put("sourceId", record.getId().getValue());
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_DEAD_LETTER_KEY).ofMap(value));
+        stringRedisTemplate.opsForStream().acknowledge(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, record.getId());
+        log.error("订单消息处理{}次仍失败，转入死信stream，id：{}，内容：{}", MAX_DELIVERIES, record.getId(), value);
+        seckillMetrics.recordDeadLetter();
+    }
+
+    private void sleepQuietly() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
 }
@@ -1,18 +1,30 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.hmdp.utils.CacheMetrics.Outcome;
+import com.hmdp.utils.CacheMetrics.Strategy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -30,10 +42,24 @@ import static com.hmdp.utils.RedisConstants.*;
 @Component
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
+    private final CacheMetrics cacheMetrics;
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 互斥锁模式下没抢到锁时最多重试的次数，每次间隔MUTEX_RETRY_MILLIS
+     */
+    private static final int MUTEX_MAX_RETRIES = 20;
+    private static final long MUTEX_RETRY_MILLIS = 50L;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheMetrics = cacheMetrics;
     }
 
     public void set(String key, Object value, Long ttl, TimeUnit unit) {
@@ -58,35 +84,98 @@ public class CacheClient {
         if (id == null) {
             return null;
         }
-        // 1.从redis查询商铺缓存
-        String key = prefixKey + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        long start = System.nanoTime();
+        try {
+            // 1.从redis查询商铺缓存
+            String key = prefixKey + id;
+            String json = stringRedisTemplate.opsForValue().get(key);
+
+            // 2.判断是否存在
+            if (StrUtil.isNotBlank(json)) {
+                // 2.1.存在直接返回
+                cacheMetrics.record(prefixKey, Strategy.PASS_THROUGH, Outcome.HIT);
+                return JSONUtil.toBean(json, type);
+            }
 
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 2.1.存在直接返回
-            return JSONUtil.toBean(json, type);
-        }
+            // 3.判断命中值是否为空值
+            if (json != null) {
+                cacheMetrics.record(prefixKey, Strategy.PASS_THROUGH, Outcome.NULL_HIT);
+                return null;
+            }
 
-        // 3.判断命中值是否为空值
-        if (json != null) {
-            return null;
-        }
+            // 4.缓存未命中，根据id查询数据库
+            cacheMetrics.record(prefixKey, Strategy.PASS_THROUGH, Outcome.MISS);
+            R res = cacheMetrics.timeDbFallback(prefixKey, Strategy.PASS_THROUGH, () -> dbFallback.apply(id));
 
-        // 4.缓存未命中，根据id查询数据库
-        R res = dbFallback.apply(id);
+            // 5.数据库中也不存在
+            if (res == null) {
+                // 6.解决缓存穿透，将空值写入redis
+                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                // 返回错误信息
+                return null;
+            }
 
-        // 5.数据库中也不存在
-        if (res == null) {
-            // 6.解决缓存穿透，将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
-            return null;
+            // 7.存在，缓存商铺信息
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(res), time, unit);
+            return res;
+        } finally {
+            cacheMetrics.recordQuery(prefixKey, Strategy.PASS_THROUGH, start);
         }
+    }
 
-        // 7.存在，缓存商铺信息
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(res), time, unit);
-        return res;
+    // 缓存穿透-批量查询，一次MGET，未命中的一次批量查库，再用pipeline写回
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String prefixKey,
+            List<ID> ids,
+            Class<R> type,
+            Function<List<ID>, Map<ID, R>> dbFallback,
+            Long time,
+            TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        // 1.从redis批量查询
+        List<String> keys = ids.stream().map(id -> prefixKey + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+
+        // 2.区分命中、命中空值和未命中
+        Map<ID, R> result = new HashMap<>(ids.size());
+        List<ID> missIds = new ArrayList<>();
+        int nullHits = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                result.put(ids.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                missIds.add(ids.get(i));
+            } else {
+                nullHits++;
+            }
+        }
+        cacheMetrics.record(prefixKey, Strategy.BATCH, Outcome.HIT, result.size());
+        cacheMetrics.record(prefixKey, Strategy.BATCH, Outcome.NULL_HIT, nullHits);
+        cacheMetrics.record(prefixKey, Strategy.BATCH, Outcome.MISS, missIds.size());
+
+        // 3.未命中的一次查询数据库，数据库中也不存在的写入空值
+        if (!missIds.isEmpty()) {
+            Map<ID, R> dbResult = cacheMetrics.timeDbFallback(prefixKey, Strategy.BATCH, () -> dbFallback.apply(missIds));
+            result.putAll(dbResult);
+            RedisBatch batch = RedisBatch.pipeline(stringRedisTemplate);
+            for (ID id : missIds) {
+                R r = dbResult.get(id);
+                if (r == null) {
+                    batch.setEx(prefixKey + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                } else {
+                    batch.setEx(prefixKey + id, JSONUtil.toJsonStr(r), time, unit);
+                }
+            }
+            batch.execute();
+        }
+
+        // 4.按传入的顺序返回
+        cacheMetrics.recordQuery(prefixKey, Strategy.BATCH, start);
+        return ids.stream().map(result::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     // 缓存击穿-逻辑过期
@@ -98,46 +187,57 @@ public class CacheClient {
             Long time,
             TimeUnit unit) {
 
-        String key = prefixKey + id;
-        // 1. 从Redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        long start = System.nanoTime();
+        try {
+            String key = prefixKey + id;
+            // 1. 从Redis查询商铺缓存
+            String json = stringRedisTemplate.opsForValue().get(key);
 
-        // 2. 未命中，返回错误信息或返回空
-        if (StrUtil.isBlank(json)) {
-            return null;
-        }
-        // 3. 命中，判断当前数据是否过期
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        R res = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            // 2. 未命中，返回错误信息或返回空
+            if (StrUtil.isBlank(json)) {
+                cacheMetrics.record(prefixKey, Strategy.LOGICAL_EXPIRE, Outcome.MISS);
+                return null;
+            }
+            // 3. 命中，判断当前数据是否过期
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            LocalDateTime expireTime = redisData.getExpireTime();
+            R res = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+
+            // 4. 未过期，返回商铺数据
+            if (expireTime.isAfter(LocalDateTime.now())) {
+                cacheMetrics.record(prefixKey, Strategy.LOGICAL_EXPIRE, Outcome.HIT);
+                return res;
+            }
+            cacheMetrics.record(prefixKey, Strategy.LOGICAL_EXPIRE, Outcome.STALE);
+            String lockKey = lockKey(prefixKey, id);
+
+            // 5. 已过期，尝试获取互斥锁
+            String lockValue = tryLock(lockKey);
+
+            // 7. 获得互斥锁，开启新线程
+            if (lockValue != null) {
+                CACHE_REBUILD_EXECUTOR.submit(() -> {
+                    long rebuildStart = System.nanoTime();
+                    try {
+                        //重建缓存
+                        R newR = cacheMetrics.timeDbFallback(
+                                prefixKey, Strategy.LOGICAL_EXPIRE, () -> dbFallback.apply(id));
+                        setWithLogicExprie(key, newR, time, unit);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        // 10. 释放互斥锁
+                        unlock(lockKey, lockValue);
+                        cacheMetrics.recordRebuild(prefixKey, rebuildStart);
+                    }
+                });
+            }
 
-        // 4. 未过期，返回商铺数据
-        if (expireTime.isAfter(LocalDateTime.now())) {
+            // 6. 未获得互斥锁，返回旧商铺信息
             return res;
+        } finally {
+            cacheMetrics.recordQuery(prefixKey, Strategy.LOGICAL_EXPIRE, start);
         }
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-
-        // 5. 已过期，尝试获取互斥锁
-        boolean isLock = tryLock(lockKey);
-
-        // 7. 获得互斥锁，开启新线程
-        if (isLock) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //重建缓存
-                    R newR = dbFallback.apply(id);
-                    setWithLogicExprie(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 10. 释放互斥锁
-                    unlock(lockKey);
-                }
-            });
-        }
-
-        // 6. 未获得互斥锁，返回旧商铺信息
-        return res;
     }
 
     // 缓存击穿-互斥锁
@@ -152,66 +252,113 @@ public class CacheClient {
         if (id == null) {
             return null;
         }
-        // 1.从redis查询商铺缓存
-        String key = prefixKey + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 2.1.存在直接返回
-            // Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return JSONUtil.toBean(json, type);
-        }
-
-        // 3.判断命中值是否为空值
-        if (type != null) {
-            return null;
+        long start = System.nanoTime();
+        try {
+            return queryWithMutex0(prefixKey, id, type, dbFallback, time, unit);
+        } finally {
+            cacheMetrics.recordQuery(prefixKey, Strategy.MUTEX, start);
         }
+    }
 
-        // 4.实现缓存重构
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        R res;
-        try {
-            // 4.1 获取互斥锁
-            boolean isLock = tryLock(lockKey);
+    private <R, ID> R queryWithMutex0(
+            String prefixKey,
+            ID id,
+            Class<R> type,
+            Function<ID, R> dbFallback,
+            Long time,
+            TimeUnit unit
+    ) {
+        String key = prefixKey + id;
+        String lockKey = lockKey(prefixKey, id);
+        boolean missRecorded = false;
+        for (int attempt = 0; ; attempt++) {
+            // 1.从redis查询商铺缓存
+            String json = stringRedisTemplate.opsForValue().get(key);
+
+            // 2.判断是否存在
+            if (StrUtil.isNotBlank(json)) {
+                // 2.1.存在直接返回，等锁期间由其它线程重建的也算命中
+                cacheMetrics.record(prefixKey, Strategy.MUTEX, Outcome.HIT);
+                return JSONUtil.toBean(json, type);
+            }
 
-            // 4.2 未获得互斥锁
-            if (!isLock) {
-                Thread.sleep(50);
-                return queryWithMutex(prefixKey, id, type, dbFallback, time, unit);
+            // 3.判断命中值是否为空值
+            if (json != null) {
+                cacheMetrics.record(prefixKey, Strategy.MUTEX, Outcome.NULL_HIT);
+                return null;
+            }
+            if (!missRecorded) {
+                cacheMetrics.record(prefixKey, Strategy.MUTEX, Outcome.MISS);
+                missRecorded = true;
             }
 
-            // 4.3 获得互斥锁，根据id查询数据库
-            res = dbFallback.apply(id);
+            // 4.获取互斥锁，只有获得锁的线程才能释放锁
+            String lockValue = tryLock(lockKey);
+            if (lockValue != null) {
+                try {
+                    return rebuildWithMutex(prefixKey, key, id, dbFallback, time, unit);
+                } finally {
+                    // 6. 释放互斥锁
+                    unlock(lockKey, lockValue);
+                }
+            }
 
-            // 4.4 数据库中也不存在,返回错误信息
-            if (res == null) {
-                // 解决缓存穿透，将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            // 4.1 未获得互斥锁，重试次数用完后直接查数据库，不写缓存
+            if (attempt >= MUTEX_MAX_RETRIES) {
+                return cacheMetrics.timeDbFallback(prefixKey, Strategy.MUTEX, () -> dbFallback.apply(id));
+            }
+            try {
+                Thread.sleep(MUTEX_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
+        }
+    }
 
-            // 5. 存在，缓存商铺信息
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(res), time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 6. 释放互斥锁
-            unlock(lockKey);
+    private <R, ID> R rebuildWithMutex(
+            String prefixKey, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 4.2 获得互斥锁，根据id查询数据库
+        R res = cacheMetrics.timeDbFallback(prefixKey, Strategy.MUTEX, () -> dbFallback.apply(id));
+
+        // 4.3 数据库中也不存在，解决缓存穿透，将空值写入redis
+        if (res == null) {
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
         }
 
+        // 5. 存在，缓存商铺信息
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(res), time, unit);
         return res;
     }
 
-    // 设置互斥锁tryLock
-    public Boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 每个缓存前缀使用自己的锁，例如cache:shop:1的锁是lock:cache:shop:1
+     */
+    private static String lockKey(String prefixKey, Object id) {
+        return CACHE_LOCK_KEY + prefixKey + id;
+    }
+
+    /**
+     * 设置互斥锁，锁的值是这次加锁的随机标识
+     *
+     * @return 加锁成功返回标识，释放锁时传回；失败返回null
+     */
+    public String tryLock(String key) {
+        long start = System.nanoTime();
+        String value = UUID.randomUUID().toString(true);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, value, RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        boolean isLock = BooleanUtil.isTrue(flag);
+        cacheMetrics.recordLock(key, isLock, start);
+        return isLock ? value : null;
     }
 
-    // 删除互斥锁
-    public void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 删除互斥锁，锁的值还是自己的标识时才删除。重建超过锁的过期时间后，锁可能已经被别的实例获得
+     */
+    public void unlock(String key, String value) {
+        long start = System.nanoTime();
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), value);
+        cacheMetrics.recordUnlock(key, start);
     }
 }
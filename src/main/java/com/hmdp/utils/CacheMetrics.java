@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * CacheClient的监控指标，按key前缀打标签。
+ * 指标对象按前缀缓存在数组里，命中路径上只有一次map查找和数组下标访问，不产生额外对象
+ * <p>
+ * cache.requests：查询次数，result为hit/miss/null_hit/stale
+ * <p>
+ * cache.query：查询总耗时；cache.db.fallback：查库耗时；cache.rebuild：逻辑过期后台重建耗时
+ * <p>
+ * cache.lock：加锁耗时，result为acquired/contended；cache.unlock：解锁耗时
+ */
+@Component
+public class CacheMetrics {
+
+    public enum Strategy {
+        PASS_THROUGH, LOGICAL_EXPIRE, MUTEX, BATCH;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    public enum Outcome {
+        HIT, MISS, NULL_HIT, STALE;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private static final int STRATEGY_COUNT = Strategy.values().length;
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, Meters> meters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LockMeters> lockMeters = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void record(String prefix, Strategy strategy, Outcome outcome) {
+        record(prefix, strategy, outcome, 1);
+    }
+
+    public void record(String prefix, Strategy strategy, Outcome outcome, int count) {
+        if (count > 0) {
+            meters(prefix).requests[strategy.ordinal() * Outcome.values().length + outcome.ordinal()].increment(count);
+        }
+    }
+
+    public void recordQuery(String prefix, Strategy strategy, long startNanos) {
+        meters(prefix).queries[strategy.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> T timeDbFallback(String prefix, Strategy strategy, Supplier<T> dbFallback) {
+        long start = System.nanoTime();
+        try {
+            return dbFallback.get();
+        } finally {
+            meters(prefix).dbFallbacks[strategy.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordRebuild(String prefix, long startNanos) {
+        meters(prefix).rebuild.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLock(String key, boolean acquired, long startNanos) {
+        LockMeters m = lockMeters(prefixOf(key));
+        (acquired ? m.acquired : m.contended).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordUnlock(String key, long startNanos) {
+        lockMeters(prefixOf(key)).unlock.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Meters meters(String prefix) {
+        Meters m = meters.get(prefix);
+        return m != null ? m : meters.computeIfAbsent(prefix, Meters::new);
+    }
+
+    private LockMeters lockMeters(String prefix) {
+        LockMeters m = lockMeters.get(prefix);
+        return m != null ? m : lockMeters.computeIfAbsent(prefix, LockMeters::new);
+    }
+
+    // 锁的key是前缀加id，去掉id部分，避免每个id一个标签
+    private static String prefixOf(String key) {
+        int i = key.lastIndexOf(':');
+        return i < 0 ? key : key.substring(0, i + 1);
+    }
+
+    private final class Meters {
+        private final Counter[] requests = new Counter[STRATEGY_COUNT * Outcome.values().length];
+        private final Timer[] queries = new Timer[STRATEGY_COUNT];
+        private final Timer[] dbFallbacks = new Timer[STRATEGY_COUNT];
+        private final Timer rebuild;
+
+        private Meters(String prefix) {
+            for (Strategy strategy : Strategy.values()) {
+                for (Outcome outcome : Outcome.values()) {
+                    requests[strategy.ordinal() * Outcome.values().length + outcome.ordinal()] =
+                            Counter.builder("cache.requests")
+                                    .tag("prefix", prefix).tag("strategy", strategy.tag).tag("result", outcome.tag)
+                                    .register(registry);
+                }
+                queries[strategy.ordinal()] = Timer.builder("cache.query")
+                        .tag("prefix", prefix).tag("strategy", strategy.tag)
+                        .register(registry);
+                dbFallbacks[strategy.ordinal()] = Timer.builder("cache.db.fallback")
+                        .tag("prefix", prefix).tag("strategy", strategy.tag)
+                        .publishPercentileHistogram()
+                        .register(registry);
+            }
+            rebuild = Timer.builder("cache.rebuild").tag("prefix", prefix)
+                    .publishPercentileHistogram().register(registry);
+        }
+    }
+
+    private final class LockMeters {
+        private final Timer acquired;
+        private final Timer contended;
+        private final Timer unlock;
+
+        private LockMeters(String prefix) {
+            acquired = Timer.builder("cache.lock").tag("prefix", prefix).tag("result", "acquired")
+                    .register(registry);
+            contended = Timer.builder("cache.lock").tag("prefix", prefix).tag("result", "contended")
+                    .register(registry);
+            unlock = Timer.builder("cache.unlock").tag("prefix", prefix).register(registry);
+        }
+    }
+}
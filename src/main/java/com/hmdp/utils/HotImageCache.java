@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点小图片的内存缓存，命中时不再打开文件、读取属性。
+ * 图片按内容寻址，写入后不会再修改，只有删除时需要主动失效
+ */
+@Component
+public class HotImageCache {
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+    private static final long MAX_TOTAL_BYTES = 64 * 1024 * 1024;
+
+    private final ConcurrentHashMap<Path, Entry> cache = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public Entry get(Path path) {
+        return cache.get(path);
+    }
+
+    public void put(Path path, byte[] data, String etag, String contentType) {
+        if (data.length > MAX_FILE_BYTES) {
+            return;
+        }
+        // 超出总大小直接清空，热点图片会很快重新加载进来
+        if (totalBytes.get() + data.length > MAX_TOTAL_BYTES) {
+            clear();
+        }
+        Entry old = cache.put(path, new Entry(data, etag, contentType));
+        totalBytes.addAndGet(data.length - (old == null ? 0 : old.data.length));
+    }
+
+    public boolean isCacheable(long size) {
+        return size <= MAX_FILE_BYTES;
+    }
+
+    public void invalidate(Path path) {
+        Entry old = cache.remove(path);
+        if (old != null) {
+            totalBytes.addAndGet(-old.data.length);
+        }
+    }
+
+    private void clear() {
+        cache.clear();
+        totalBytes.set(0);
+    }
+
+    public static final class Entry {
+        private final byte[] data;
+        private final String etag;
+        private final String contentType;
+
+        private Entry(byte[] data, String etag, String contentType) {
+            this.data = data;
+            this.etag = etag;
+            this.contentType = contentType;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+}
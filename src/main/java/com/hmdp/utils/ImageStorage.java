@@ -0,0 +1,389 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.IMAGE_REF_KEY;
+import static com.hmdp.utils.RedisConstants.IMAGE_THUMBNAIL_KEY;
+import static com.hmdp.utils.SystemConstants.IMAGE_THUMBNAIL_MAX_PIXELS;
+import static com.hmdp.utils.SystemConstants.IMAGE_THUMBNAIL_WIDTH;
+
+/**
+ * 图片存储，文件保存在hmdp.image.root下，返回的文件名是相对根目录的路径。
+ * <p>
+ * 按内容寻址：文件名就是内容的SHA-256，相同的图片只存一份，redis中用set记录每个文件的引用者（上传的用户），
+ * 引用者全部释放后才真正删除，同一个用户重复释放不会影响其它用户。
+ * 新存入的图片在后台线程生成缩略图，文件名为原图名加"_s"，生成成功后记录到redis，列表页据此替换地址
+ */
+@Slf4j
+@Component
+public class ImageStorage {
+    private static final Pattern SUFFIX_PATTERN = Pattern.compile("[A-Za-z0-9]{1,8}");
+    private static final Pattern CONTENT_NAME_PATTERN =
+            Pattern.compile("/blogs/[0-9a-f]{2}/[0-9a-f]{2}/([0-9a-f]{64})\\.([A-Za-z0-9]{1,8})$");
+    private static final String THUMBNAIL_MARK = "_s";
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("image_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    // 缩略图生成比较耗CPU，线程数和队列都有上限，队列满了直接跳过，列表页退回使用原图
+    private final ThreadPoolExecutor thumbnailExecutor = new ThreadPoolExecutor(
+            2, 2, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(200),
+            new NamedThreadFactory("image-thumbnail-", true),
+            (r, executor) -> log.warn("缩略图任务队列已满，跳过"));
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final HotImageCache hotImageCache;
+    private final Path root;
+    private final Path tmpDir;
+    private final long maxBytes;
+
+    public ImageStorage(StringRedisTemplate stringRedisTemplate,
+                        HotImageCache hotImageCache,
+                        @Value("${hmdp.image.root}") String root,
+                        @Value("${hmdp.image.max-size:10MB}") DataSize maxSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.hotImageCache = hotImageCache;
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.tmpDir = this.root.resolve(".tmp");
+        this.maxBytes = maxSize.toBytes();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thumbnailExecutor.shutdownNow();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 把输入流直接写入存储目录，边写边计算摘要、检查大小，不在内存中缓冲整个文件
+     *
+     * @param in            请求体
+     * @param contentLength 请求声明的长度，未知时为-1
+     * @param suffix        文件后缀
+     * @param owner         上传的用户id，作为这次引用的引用者
+     * @return 文件名
+     */
+    public String save(InputStream in, long contentLength, String suffix, Long owner) throws IOException {
+        if (suffix == null || !SUFFIX_PATTERN.matcher(suffix).matches()) {
+            throw new IOException("错误的文件后缀：" + suffix);
+        }
+        // 1.声明的长度已经超限，直接拒绝，不读请求体
+        if (contentLength > maxBytes) {
+            throw new SizeLimitExceededException(maxBytes);
+        }
+        // 2.写入临时文件，同时计算SHA-256
+        Files.createDirectories(tmpDir);
+        Path part = tmpDir.resolve(UUID.randomUUID() + ".part");
+        MessageDigest digest = sha256();
+        try {
+            transfer(new DigestInputStream(in, digest), part);
+            // 3.按摘要生成文件名，先记录引用再落盘，保证并发删除时能看到这次引用
+            String hex = HexUtil.encodeHexStr(digest.digest());
+            String fileName = StrUtil.format("/blogs/{}/{}/{}.{}",
+                    hex.substring(0, 2), hex.substring(2, 4), hex, suffix.toLowerCase());
+            stringRedisTemplate.opsForSet().add(IMAGE_REF_KEY + fileName, owner.toString());
+            Path target = resolve(fileName);
+            if (Files.exists(target)) {
+                // 3.1.已经存过相同的图片，丢弃本次上传的内容
+                Files.delete(part);
+                return fileName;
+            }
+            // 3.2.新图片，改名为正式文件并生成缩略图
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                Files.delete(part);
+                return fileName;
+            }
+            thumbnailExecutor.execute(() -> createThumbnail(fileName, target, suffix));
+            return fileName;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    public String save(MultipartFile image, Long owner) throws IOException {
+        if (image.getSize() > maxBytes) {
+            throw new SizeLimitExceededException(maxBytes);
+        }
+        // 需要先算出摘要才能确定文件名，所以从容器的临时文件再读一遍
+        try (InputStream in = image.getInputStream()) {
+            return save(in, image.getSize(), StrUtil.subAfter(image.getOriginalFilename(), ".", true), owner);
+        }
+    }
+
+    /**
+     * 释放owner对图片的引用，所有引用者都释放后删除文件和缩略图。
+     * 同一个引用者重复释放只有第一次生效
+     *
+     * @return 文件名不合法、不存在或owner没有引用这张图片时返回false
+     */
+    public boolean delete(String fileName, Long owner) throws IOException {
+        Path path = resolve(fileName);
+        if (path == null || Files.isDirectory(path)) {
+            return false;
+        }
+        // 1.按内容寻址之前上传的图片没有引用计数，直接删除
+        if (!CONTENT_NAME_PATTERN.matcher(fileName).find()) {
+            hotImageCache.invalidate(path);
+            return Files.deleteIfExists(path);
+        }
+        // 2.释放owner的引用，owner不是引用者时什么都不做，还有其它引用者时保留文件
+        String refKey = IMAGE_REF_KEY + fileName;
+        Long count = stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(refKey), owner.toString());
+        if (count == null || count < 0) {
+            return false;
+        }
+        if (count > 0) {
+            return true;
+        }
+        // 3.先改名再确认引用数，期间有新的上传时再改回来，避免删掉刚被引用的文件
+        hotImageCache.invalidate(path);
+        hotImageCache.invalidate(thumbnailPath(path));
+        Path trash = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".del");
+        try {
+            Files.move(path, trash, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            return false;
+        }
+        Long current = stringRedisTemplate.opsForSet().size(refKey);
+        if (current != null && current > 0) {
+            try {
+                Files.move(trash, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // 新的上传已经重新写入了文件
+                Files.delete(trash);
+            }
+            return true;
+        }
+        Files.delete(trash);
+        stringRedisTemplate.opsForHash().delete(IMAGE_THUMBNAIL_KEY, fileName);
+        Files.deleteIfExists(thumbnailPath(path));
+        return true;
+    }
+
+    /**
+     * 文件名转换为绝对路径，不允许跳出根目录，不合法时返回null
+     */
+    public Path resolve(String fileName) {
+        if (StrUtil.isBlank(fileName)) {
+            return null;
+        }
+        Path path = root.resolve(StrUtil.removePrefix(fileName, "/")).normalize();
+        return path.startsWith(root) && !path.equals(root) && !path.startsWith(tmpDir) ? path : null;
+    }
+
+    /**
+     * 图片的ETag，按内容寻址的图片直接使用摘要，其它的用大小和修改时间
+     */
+    public String etagOf(String fileName, BasicFileAttributes attributes) {
+        Matcher matcher = CONTENT_NAME_PATTERN.matcher(fileName);
+        if (matcher.find()) {
+            return "\"" + matcher.group(1) + "\"";
+        }
+        return "\"" + Long.toHexString(attributes.size()) + "-"
+                + Long.toHexString(attributes.lastModifiedTime().toMillis()) + "\"";
+    }
+
+    /**
+     * 把一页数据里逗号分隔的图片地址转换为对应的缩略图地址，缩略图还没生成的保留原图。
+     * 是否有缩略图读取生成时记录在redis里的标记，整页只查询一次，不访问磁盘
+     *
+     * @param imagesList 每条数据的图片地址
+     * @return 与imagesList一一对应的缩略图地址
+     */
+    public List<String> thumbnailsOf(List<String> imagesList) {
+        // 1.收集按内容寻址的图片，图片地址可能带有静态资源前缀，如/imgs，只取/blogs开始的部分作为文件名
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (String images : imagesList) {
+            if (StrUtil.isBlank(images)) {
+                continue;
+            }
+            for (String image : images.split(",")) {
+                Matcher matcher = CONTENT_NAME_PATTERN.matcher(image);
+                if (matcher.find()) {
+                    fileNames.add(image.substring(matcher.start()));
+                }
+            }
+        }
+        // 2.批量查询缩略图标记
+        Set<String> withThumbnail = new LinkedHashSet<>();
+        if (!fileNames.isEmpty()) {
+            List<Object> keys = new ArrayList<>(fileNames);
+            List<Object> marks = stringRedisTemplate.opsForHash().multiGet(IMAGE_THUMBNAIL_KEY, keys);
+            Iterator<Object> mark = marks.iterator();
+            for (Object fileName : keys) {
+                if (mark.hasNext() && mark.next() != null) {
+                    withThumbnail.add(fileName.toString());
+                }
+            }
+        }
+        // 3.替换地址
+        List<String> result = new ArrayList<>(imagesList.size());
+        for (String images : imagesList) {
+            result.add(StrUtil.isBlank(images) ? images : Arrays.stream(images.split(","))
+                    .map(image -> thumbnailOf(image, withThumbnail))
+                    .collect(Collectors.joining(",")));
+        }
+        return result;
+    }
+
+    private static String thumbnailOf(String image, Set<String> withThumbnail) {
+        Matcher matcher = CONTENT_NAME_PATTERN.matcher(image);
+        if (!matcher.find() || !withThumbnail.contains(image.substring(matcher.start()))) {
+            return image;
+        }
+        return image.substring(0, matcher.start(2) - 1) + THUMBNAIL_MARK + image.substring(matcher.start(2) - 1);
+    }
+
+    private void transfer(InputStream in, Path part) throws IOException {
+        // 最多读取maxBytes+1个字节用于判断是否超限
+        try (ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel dest = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (true) {
+                long n = dest.transferFrom(src, position, Math.min(TRANSFER_CHUNK, maxBytes + 1 - position));
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+                if (position > maxBytes) {
+                    throw new SizeLimitExceededException(maxBytes);
+                }
+            }
+        }
+    }
+
+    private void createThumbnail(String fileName, Path source, String suffix) {
+        Path thumbnail = thumbnailPath(source);
+        Path part = thumbnail.resolveSibling(thumbnail.getFileName() + ".part");
+        try {
+            // 1.读取原图，格式不支持、宽度本来就小或像素过多时不生成
+            BufferedImage image = readForThumbnail(source);
+            if (image == null) {
+                return;
+            }
+            // 2.按宽度等比缩放
+            int height = Math.max(1, (int) ((long) image.getHeight() * IMAGE_THUMBNAIL_WIDTH / image.getWidth()));
+            int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+            BufferedImage scaled = new BufferedImage(IMAGE_THUMBNAIL_WIDTH, height, type);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, IMAGE_THUMBNAIL_WIDTH, height, null);
+            g.dispose();
+            // 3.写入临时文件后改名
+            if (ImageIO.write(scaled, suffix.toLowerCase(), part.toFile())) {
+                Files.move(part, thumbnail, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                // 4.记录缩略图已生成，列表页不再逐个检查文件
+                stringRedisTemplate.opsForHash().put(IMAGE_THUMBNAIL_KEY, fileName, "1");
+            }
+        } catch (Exception e) {
+            log.warn("生成缩略图失败，{}", source, e);
+        } finally {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 先只读取图片头里的宽高，像素数超过上限的不解码，避免一张很小的文件解压出巨大的位图
+     */
+    private static BufferedImage readForThumbnail(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                long width = reader.getWidth(0);
+                long height = reader.getHeight(0);
+                if (width <= IMAGE_THUMBNAIL_WIDTH || width * height > IMAGE_THUMBNAIL_MAX_PIXELS) {
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Path thumbnailPath(Path image) {
+        String name = image.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return image.resolveSibling(name.substring(0, dot) + THUMBNAIL_MARK + name.substring(dot));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class SizeLimitExceededException extends IOException {
+        public SizeLimitExceededException(long maxBytes) {
+            super("文件大小超过限制：" + maxBytes + "字节");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 异步模式关闭时，接口返回的Callable直接在tomcat线程上执行，结果交给@ResponseBody的处理器写出，
+ * 不再经过startAsync和第二次ASYNC分派，开销与同步接口相同
+ */
+public class InlineCallableReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    private final HandlerMethodReturnValueHandler responseBodyHandler;
+
+    public InlineCallableReturnValueHandler(HandlerMethodReturnValueHandler responseBodyHandler) {
+        this.responseBodyHandler = responseBodyHandler;
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return Callable.class.isAssignableFrom(returnType.getParameterType())
+                && responseBodyHandler.supportsReturnType(returnType);
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType,
+                                  ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+        if (returnValue == null) {
+            mavContainer.setRequestHandled(true);
+            return;
+        }
+        // 业务异常照常抛出，由全局异常处理转换为响应
+        Object result = ((Callable<?>) returnValue).call();
+        responseBodyHandler.handleReturnValue(result, returnType.nested(), mavContainer, webRequest);
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 滚动分页的游标：上一页最后一条记录的(排序值, id)，编码为base64url字符串，客户端原样传回即可。
+ * 按id排序时排序值就是id
+ */
+public class KeysetCursor {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final long sortValue;
+    private final long id;
+
+    public KeysetCursor(long sortValue, long id) {
+        this.sortValue = sortValue;
+        this.id = id;
+    }
+
+    public long getSortValue() {
+        return sortValue;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String encode() {
+        return ENCODER.encodeToString((sortValue + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return 游标格式不正确时返回null
+     */
+    public static KeysetCursor decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String value = new String(DECODER.decode(cursor), StandardCharsets.UTF_8);
+            int i = value.indexOf(':');
+            if (i <= 0) {
+                return null;
+            }
+            return new KeysetCursor(Long.parseLong(value.substring(0, i)), Long.parseLong(value.substring(i + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
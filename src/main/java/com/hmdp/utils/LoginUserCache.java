@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录用户的本地缓存，token -> UserDTO，过期时间很短，用来避免每个请求都去redis查一次token。
+ * 登出时需要主动失效；其他实例上的缓存最多在过期时间内继续有效。
+ * UserDTO只有tb_user里的id、昵称和头像，注册后没有修改它们的接口，修改资料只改tb_user_info，不需要失效这里。
+ * 以后增加修改昵称或头像的接口时，需要同时更新redis里的登录信息并失效这里的缓存。
+ * 缓存数量有上限，过期的由定时任务清理，满了之后新的token不再缓存，直接查redis
+ */
+@Component
+public class LoginUserCache {
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_SIZE = 10000;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    public UserDTO get(String token) {
+        Entry entry = cache.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            cache.remove(token, entry);
+            return null;
+        }
+        return entry.user;
+    }
+
+    public void put(String token, UserDTO user) {
+        if (cache.size() >= MAX_SIZE && !cache.containsKey(token)) {
+            return;
+        }
+        cache.put(token, new Entry(user, System.currentTimeMillis() + TTL_MILLIS));
+    }
+
+    public void invalidate(String token) {
+        cache.remove(token);
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(entry -> entry.expireAt < now);
+    }
+
+    private static final class Entry {
+        private final UserDTO user;
+        private final long expireAt;
+
+        private Entry(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+}
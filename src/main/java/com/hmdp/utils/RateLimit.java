@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 接口限流，滑动窗口内同一个key最多允许limit次请求，可以在同一个方法上叠加多条规则
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimits.class)
+public @interface RateLimit {
+    /**
+     * 限流维度
+     */
+    KeyType key();
+
+    /**
+     * 窗口内允许的请求次数
+     */
+    int limit();
+
+    /**
+     * 窗口大小，单位秒
+     */
+    int window() default 60;
+
+    enum KeyType {
+        /**
+         * 客户端ip
+         */
+        IP,
+        /**
+         * 手机号，取名为phone的请求参数，或请求体中的phone字段
+         */
+        PHONE,
+        /**
+         * 登录token
+         */
+        TOKEN
+    }
+}
@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 处理@RateLimit注解：先做本地预检，本实例内已经超限或刚被redis拒绝过的请求直接拒绝，
+ * 其余请求再用lua脚本在redis中原子地执行滑动窗口计数。redis异常时放行。
+ * 本地窗口数有上限，由定时任务清理过期窗口，达到上限后新的key只走redis，请求线程上不做清理
+ * hmdp.rate-limit.enabled=false时整体关闭，压测时所有请求都来自同一个ip，需要关掉
+ */
+@Slf4j
+@Aspect
+@Component
+@ConditionalOnProperty(prefix = "hmdp.rate-limit", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitAspect {
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("ratelimit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+    private static final String PHONE = "phone";
+    private static final long MAX_LOCAL_BLOCK_MILLIS = 1000;
+    private static final int MAX_LOCAL_WINDOWS = 100000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ConcurrentHashMap<String, LocalWindow> localWindows = new ConcurrentHashMap<>();
+
+    public RateLimitAspect(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Around("@annotation(com.hmdp.utils.RateLimit) || @annotation(com.hmdp.utils.RateLimits)")
+    public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        HttpServletRequest request =
+                ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+        String prefix = RATE_LIMIT_KEY + method.getDeclaringClass().getSimpleName() + ":" + method.getName() + ":";
+        for (RateLimit rule : method.getAnnotationsByType(RateLimit.class)) {
+            String value = resolveKey(rule.key(), method, joinPoint.getArgs(), request);
+            if (StrUtil.isBlank(value)) {
+                continue;
+            }
+            String key = prefix + rule.key().name().toLowerCase() + ":" + rule.window() + ":" + value;
+            if (!tryAcquire(key, rule)) {
+                return Result.fail("请求过于频繁，请稍后再试");
+            }
+        }
+        return joinPoint.proceed();
+    }
+
+    private boolean tryAcquire(String key, RateLimit rule) {
+        long now = System.currentTimeMillis();
+        long windowMillis = rule.window() * 1000L;
+        // 1.本地预检：本实例在一个窗口内就已超限，全局必然超限
+        LocalWindow local = localWindows.size() < MAX_LOCAL_WINDOWS || localWindows.containsKey(key)
+                ? localWindows.compute(key, (k, window) ->
+                        window == null || now - window.start >= windowMillis ? new LocalWindow(now, windowMillis) : window)
+                : null;
+        if (local != null && (local.blockedUntil > now || local.count.incrementAndGet() > rule.limit())) {
+            return false;
+        }
+        // 2.redis滑动窗口
+        try {
+            Long allowed = stringRedisTemplate.execute(
+                    RATE_LIMIT_SCRIPT,
+                    Collections.singletonList(key),
+                    String.valueOf(now),
+                    String.valueOf(windowMillis),
+                    String.valueOf(rule.limit()),
+                    now + "-" + ThreadLocalRandom.current().nextInt()
+            );
+            if (allowed != null && allowed == 0) {
+                // 被拒绝后短时间内不再访问redis
+                if (local != null) {
+                    local.blockedUntil = now + Math.min(windowMillis, MAX_LOCAL_BLOCK_MILLIS);
+                }
+                return false;
+            }
+        } catch (Exception e) {
+            log.warn("限流检查失败，放行请求：{}", e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 定时清理已经结束的本地窗口
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void evictExpiredWindows() {
+        long now = System.currentTimeMillis();
+        localWindows.values().removeIf(window -> now - window.start >= window.size);
+    }
+
+    private String resolveKey(RateLimit.KeyType keyType, Method method, Object[] args, HttpServletRequest request) {
+        switch (keyType) {
+            case IP:
+                return request.getRemoteAddr();
+            case TOKEN:
+                return request.getHeader("Authorization");
+            case PHONE:
+                return resolvePhone(method, args);
+            default:
+                return null;
+        }
+    }
+
+    // 优先取名为phone的请求参数，其次取请求体中的phone字段
+    private String resolvePhone(Method method, Object[] args) {
+        Parameter[] parameters = method.getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            RequestParam requestParam = parameters[i].getAnnotation(RequestParam.class);
+            if (requestParam != null && (PHONE.equals(requestParam.value()) || PHONE.equals(requestParam.name()))) {
+                return args[i] == null ? null : args[i].toString();
+            }
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].isAnnotationPresent(RequestBody.class) && args[i] != null
+                    && ReflectUtil.hasField(args[i].getClass(), PHONE)) {
+                Object phone = ReflectUtil.getFieldValue(args[i], PHONE);
+                return phone == null ? null : phone.toString();
+            }
+        }
+        return null;
+    }
+
+    private static final class LocalWindow {
+        private final long start;
+        private final long size;
+        private final AtomicInteger count = new AtomicInteger();
+        private volatile long blockedUntil;
+
+        private LocalWindow(long start, long size) {
+            this.start = start;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
+
+/**
+ * CacheClient的响应式版本，基于lettuce的响应式连接，redis读写不占用请求线程。
+ * 数据库查询仍是阻塞调用，统一放到boundedElastic线程池执行，避免阻塞lettuce的事件循环线程
+ */
+@Slf4j
+@Component
+public class ReactiveCacheClient {
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ReactiveValueOperations<String, String> ops;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    public ReactiveCacheClient(ReactiveStringRedisTemplate reactiveStringRedisTemplate) {
+        this.redisTemplate = reactiveStringRedisTemplate;
+        this.ops = reactiveStringRedisTemplate.opsForValue();
+    }
+
+    public Mono<Boolean> set(String key, Object value, Long ttl, TimeUnit unit) {
+        return ops.set(key, JSONUtil.toJsonStr(value), Duration.ofMillis(unit.toMillis(ttl)));
+    }
+
+    public Mono<Boolean> setWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        return ops.set(key, JSONUtil.toJsonStr(redisData));
+    }
+
+    // 缓存穿透
+    public <R, ID> Mono<R> queryWithPassThrough(
+            String prefixKey,
+            ID id,
+            Class<R> type,
+            Function<ID, R> dbFallback,
+            Long time,
+            TimeUnit unit) {
+        if (id == null) {
+            return Mono.empty();
+        }
+        String key = prefixKey + id;
+        return ops.get(key)
+                // 1.命中，空值用Optional.empty表示，与未命中区分开
+                .map(json -> StrUtil.isBlank(json) ? Optional.<R>empty() : Optional.of(JSONUtil.toBean(json, type)))
+                // 2.未命中，查询数据库并写回
+                .switchIfEmpty(Mono.defer(() -> loadAndCache(key, id, dbFallback, time, unit)))
+                .flatMap(Mono::justOrEmpty);
+    }
+
+    private <R, ID> Mono<Optional<R>> loadAndCache(
+            String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return Mono.fromCallable(() -> Optional.ofNullable(dbFallback.apply(id)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(res -> {
+                    // 数据库中也不存在，写入空值
+                    Mono<Boolean> write = res.isPresent()
+                            ? set(key, res.get(), time, unit)
+                            : ops.set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
+                    return write.thenReturn(res);
+                });
+    }
+
+    // 缓存穿透-批量查询，未命中的一次批量查库。
+    // 响应式的MGET把不存在的key读成空字符串，和缓存的空值分不开，所以逐个GET，
+    // 读和写回的命令都由lettuce在同一连接上连续发送，不逐个等待响应
+    public <R, ID> Flux<R> queryBatchWithPassThrough(
+            String prefixKey,
+            List<ID> ids,
+            Class<R> type,
+            Function<List<ID>, Map<ID, R>> dbFallback,
+            Long time,
+            TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Flux.empty();
+        }
+        return Flux.fromIterable(ids)
+                .flatMapSequential(id -> ops.get(prefixKey + id).map(Optional::of).defaultIfEmpty(Optional.empty()))
+                .collectList()
+                .flatMapMany(jsons -> {
+                    // 1.区分命中、命中空值和未命中
+                    Map<ID, R> result = new HashMap<>(ids.size());
+                    List<ID> missIds = new ArrayList<>();
+                    for (int i = 0; i < ids.size(); i++) {
+                        String json = jsons.get(i).orElse(null);
+                        if (StrUtil.isNotBlank(json)) {
+                            result.put(ids.get(i), JSONUtil.toBean(json, type));
+                        } else if (json == null) {
+                            missIds.add(ids.get(i));
+                        }
+                    }
+                    // 2.未命中的一次查询数据库，数据库中也不存在的写入空值
+                    Mono<Map<ID, R>> loaded = missIds.isEmpty() ? Mono.just(result) : Mono
+                            .fromCallable(() -> dbFallback.apply(missIds))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(dbResult -> {
+                                result.putAll(dbResult);
+                                return Flux.fromIterable(missIds)
+                                        .flatMap(id -> dbResult.get(id) == null
+                                                ? ops.set(prefixKey + id, "", Duration.ofMinutes(CACHE_NULL_TTL))
+                                                : set(prefixKey + id, dbResult.get(id), time, unit))
+                                        .then(Mono.just(result));
+                            });
+                    // 3.按传入的顺序返回
+                    return loaded.flatMapIterable(map ->
+                            ids.stream().map(map::get).filter(Objects::nonNull).collect(Collectors.toList()));
+                });
+    }
+
+    // 缓存击穿-逻辑过期
+    public <R, ID> Mono<R> queryWithLogicalExpire(
+            String prefixKey,
+            ID id,
+            Class<R> type,
+            Function<ID, R> dbFallback,
+            Long time,
+            TimeUnit unit) {
+        String key = prefixKey + id;
+        return ops.get(key)
+                // 1.未命中直接返回空
+                .filter(StrUtil::isNotBlank)
+                .flatMap(json -> {
+                    RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+                    R res = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+                    // 2.未过期，直接返回
+                    if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+                        return Mono.justOrEmpty(res);
+                    }
+                    // 3.已过期，抢到锁的请求在后台重建，所有请求都先返回旧数据
+                    // 与CacheClient使用同一把锁，同一个key只会有一个重建任务
+                    String lockKey = CACHE_LOCK_KEY + key;
+                    return tryLock(lockKey)
+                            .doOnNext(lockValue -> rebuild(key, lockKey, lockValue, id, dbFallback, time, unit))
+                            .then(Mono.justOrEmpty(res));
+                });
+    }
+
+    private <R, ID> void rebuild(
+            String key, String lockKey, String lockValue, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        Mono.fromCallable(() -> dbFallback.apply(id))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(newR -> setWithLogicExpire(key, newR, time, unit))
+                .doOnError(e -> log.error("重建缓存失败，key：{}", key, e))
+                .onErrorResume(e -> Mono.empty())
+                .then(unlock(lockKey, lockValue))
+                .subscribe();
+    }
+
+    /**
+     * 设置互斥锁，锁的值是这次加锁的随机标识
+     *
+     * @return 加锁成功时发出标识，释放锁时传回；失败时为空
+     */
+    public Mono<String> tryLock(String key) {
+        String value = UUID.randomUUID().toString(true);
+        return ops.setIfAbsent(key, value, Duration.ofSeconds(LOCK_SHOP_TTL))
+                .filter(Boolean::booleanValue)
+                .map(isLock -> value);
+    }
+
+    /**
+     * 删除互斥锁，锁的值还是自己的标识时才删除，不会释放CacheClient或其它实例持有的同一把锁
+     */
+    public Mono<Long> unlock(String key, String value) {
+        return redisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), Collections.singletonList(value))
+                .next();
+    }
+}
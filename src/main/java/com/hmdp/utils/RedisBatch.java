@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量写命令构建器，收集的命令在execute时一次网络往返发送到redis
+ * <p>
+ * pipeline：只合并网络往返，命令之间可能穿插其它客户端的命令
+ * <p>
+ * transaction：在pipeline中用MULTI/EXEC包裹，仍是一次往返，且命令原子执行
+ */
+public class RedisBatch {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final boolean transactional;
+    private final List<Consumer<StringRedisConnection>> commands = new ArrayList<>();
+
+    private RedisBatch(StringRedisTemplate stringRedisTemplate, boolean transactional) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.transactional = transactional;
+    }
+
+    public static RedisBatch pipeline(StringRedisTemplate stringRedisTemplate) {
+        return new RedisBatch(stringRedisTemplate, false);
+    }
+
+    public static RedisBatch transaction(StringRedisTemplate stringRedisTemplate) {
+        return new RedisBatch(stringRedisTemplate, true);
+    }
+
+    public RedisBatch set(String key, String value) {
+        commands.add(conn -> conn.set(key, value));
+        return this;
+    }
+
+    public RedisBatch setEx(String key, String value, long ttl, TimeUnit unit) {
+        commands.add(conn -> conn.setEx(key, unit.toSeconds(ttl), value));
+        return this;
+    }
+
+    public RedisBatch del(String... keys) {
+        commands.add(conn -> conn.del(keys));
+        return this;
+    }
+
+    public RedisBatch expire(String key, long ttl, TimeUnit unit) {
+        commands.add(conn -> conn.expire(key, unit.toSeconds(ttl)));
+        return this;
+    }
+
+    public RedisBatch hSet(String key, String field, String value) {
+        commands.add(conn -> conn.hSet(key, field, value));
+        return this;
+    }
+
+    public RedisBatch hMSet(String key, Map<String, String> hash) {
+        commands.add(conn -> conn.hMSet(key, hash));
+        return this;
+    }
+
+    public RedisBatch hIncrBy(String key, String field, long delta) {
+        commands.add(conn -> conn.hIncrBy(key, field, delta));
+        return this;
+    }
+
+    public RedisBatch sAdd(String key, String... values) {
+        commands.add(conn -> conn.sAdd(key, values));
+        return this;
+    }
+
+    public RedisBatch sRem(String key, String... values) {
+        commands.add(conn -> conn.sRem(key, values));
+        return this;
+    }
+
+    public RedisBatch zAdd(String key, double score, String value) {
+        commands.add(conn -> conn.zAdd(key, score, value));
+        return this;
+    }
+
+    public RedisBatch pfAdd(String key, String... values) {
+        commands.add(conn -> conn.pfAdd(key, values));
+        return this;
+    }
+
+    public RedisBatch geoAdd(String key, Point point, String member) {
+        commands.add(conn -> conn.geoAdd(key, point, member));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    /**
+     * 发送所有命令
+     *
+     * @return 每条命令的结果，按添加顺序排列
+     */
+    public List<Object> execute() {
+        if (commands.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (transactional) {
+                conn.multi();
+            }
+            commands.forEach(command -> command.accept(conn));
+            if (transactional) {
+                conn.exec();
+            }
+            return null;
+        });
+        // 事务模式下入队的命令没有单独的结果，EXEC的结果就是每条命令的结果
+        if (transactional && results.size() == 1 && results.get(0) instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<Object> execResults = (List<Object>) results.get(0);
+            return execResults;
+        }
+        return results;
+    }
+}
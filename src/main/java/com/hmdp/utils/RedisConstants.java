@@ -5,18 +5,56 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final Long LOGIN_USER_REFRESH_INTERVAL = 10L;
+    public static final String LOGIN_DENYLIST_KEY = "login:denylist";
+    public static final String LOGIN_DENYLIST_SEQ_KEY = "login:denylist:seq";
+    public static final String LOGIN_DENYLIST_EXPIRE_KEY = "login:denylist:expire";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_ITEM_KEY = "cache:shop:item:";
+    public static final String CACHE_SHOP_LIST_KEY = "cache:shop:listing:";
+    public static final Long CACHE_SHOP_LIST_TTL = 30L;
+    public static final Long CACHE_SHOP_LIST_FILTER_TTL = 60L;
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String CACHE_LOCK_KEY = "lock:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    public static final String SECKILL_DEAD_LETTER_KEY = "stream.orders.dlq";
+    public static final String ID_KEY = "icr:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOW_COUNT_KEY = "follow:count:";
+    public static final String FOLLOW_LOADING_KEY = "follow:loading:";
+    public static final String FOLLOW_WRITING_KEY = "follow:writing:";
+    public static final Long FOLLOW_MARK_TTL = 10L;
+
+    public static final String BLOG_COMMENTS_PENDING_KEY = "blog:comments:pending";
+    public static final String BLOG_COMMENTS_FLUSHING_KEY = "blog:comments:flushing";
+    public static final String LOCK_BLOG_COMMENTS_KEY = "lock:blog:comments";
+    public static final Long LOCK_BLOG_COMMENTS_TTL = 30L;
+
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
+
+    public static final String UV_KEY = "uv:";
+    public static final Long UV_DAY_TTL = 180L;
+    public static final Long UV_TOTAL_TTL = 365L;
+
+    public static final String IMAGE_REF_KEY = "image:ref:";
+    public static final String IMAGE_THUMBNAIL_KEY = "image:thumbnail";
 }
@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static com.hmdp.utils.RedisConstants.ID_KEY;
+
+/**
+ * 全局唯一id：高32位是相对2022-01-01的秒数，低32位是redis里按天自增的序号
+ */
+@Component
+public class RedisIdWorker {
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public long nextId(String keyPrefix) {
+        // 1.生成时间戳
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        // 2.生成序列号，按天分key，方便统计也避免单个key自增到上限
+        String date = now.format(DATE_FORMATTER);
+        Long count = stringRedisTemplate.opsForValue().increment(ID_KEY + keyPrefix + ":" + date);
+        // 3.拼接
+        return timestamp << COUNT_BITS | (count == null ? 0L : count);
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 给RedisConnectionFactory套一层代理，同步连接上的每条命令都记录到RequestTrace。
+ * 没有RequestTrace的线程（定时任务等）只多一次ThreadLocal查询
+ */
+@Component
+public class RedisTracePostProcessor implements BeanPostProcessor {
+    // 连接管理类的方法，不算作redis命令
+    private static final Set<String> IGNORED_METHODS = new HashSet<>(Arrays.asList(
+            "close", "isClosed", "getNativeConnection", "isQueueing", "isPipelined", "openPipeline",
+            "getSentinelConnection", "toString", "hashCode", "equals"));
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof RedisConnectionFactory)) {
+            return bean;
+        }
+        return Proxy.newProxyInstance(bean.getClass().getClassLoader(), ClassUtils.getAllInterfaces(bean),
+                (proxy, method, args) -> {
+                    Object result = invoke(bean, method, args);
+                    if (result instanceof RedisConnection && "getConnection".equals(method.getName())) {
+                        return traced((RedisConnection) result);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object traced(RedisConnection connection) {
+        return Proxy.newProxyInstance(connection.getClass().getClassLoader(), ClassUtils.getAllInterfaces(connection),
+                (proxy, method, args) -> {
+                    if (RequestTrace.current() == null || IGNORED_METHODS.contains(method.getName())
+                            || method.getName().endsWith("Commands")) {
+                        return invoke(connection, method, args);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(connection, method, args);
+                    } finally {
+                        RequestTrace.recordRedis(method.getName(), start);
+                    }
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_REFRESH_INTERVAL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 拦截所有请求：解析token对应的用户并保存到UserHolder，同时刷新token有效期，不做登录拦截。
+ * 每个token在一个刷新间隔内最多执行一次EXPIRE，redis写入量只和活跃用户数有关，与请求量无关。
+ * 记录的token数有上限，过期记录由evictStale定时清理，达到上限后新的token每次请求都刷新，不再记录
+ */
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
+    private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_INTERVAL);
+    private static final int MAX_TRACKED_TOKENS = 100000;
+
+    private StringRedisTemplate stringRedisTemplate;
+    private LoginUserCache loginUserCache;
+    private SignedTokenClient signedTokenClient;
+    private final ConcurrentHashMap<String, Long> lastRefreshTime = new ConcurrentHashMap<>();
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, LoginUserCache loginUserCache,
+                                   SignedTokenClient signedTokenClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.loginUserCache = loginUserCache;
+        this.signedTokenClient = signedTokenClient;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.获取token，没有则直接放行
+        String token = request.getHeader("Authorization");
+        if (StrUtil.isBlank(token)) {
+            return true;
+        }
+        // 2.签名token直接本地校验，不需要刷新有效期
+        if (signedTokenClient.isEnabled()) {
+            UserDTO userDTO = signedTokenClient.verify(token);
+            if (userDTO != null) {
+                UserHolder.saveUser(userDTO);
+            }
+            return true;
+        }
+        // 3.先查本地缓存，未命中再查redis
+        UserDTO userDTO = loginUserCache.get(token);
+        if (userDTO == null) {
+            Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
+            if (userMap.isEmpty()) {
+                return true;
+            }
+            userDTO = toUserDTO(userMap);
+            loginUserCache.put(token, userDTO);
+        }
+        // 4.保存用户，刷新token有效期
+        UserHolder.saveUser(userDTO);
+        refreshIfNeeded(token);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        // 请求结束后清理，避免线程复用时串用户
+        UserHolder.removeUser();
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 异步处理时afterCompletion在二次分发的线程上执行，tomcat线程在这里清理
+        UserHolder.removeUser();
+    }
+
+    private void refreshIfNeeded(String token) {
+        long now = System.currentTimeMillis();
+        Long last = lastRefreshTime.get(token);
+        if (last != null && now - last < REFRESH_INTERVAL_MILLIS) {
+            return;
+        }
+        // 并发请求中只有一个能抢到这次刷新
+        if (last != null) {
+            if (!lastRefreshTime.replace(token, last, now)) {
+                return;
+            }
+        } else if (lastRefreshTime.size() < MAX_TRACKED_TOKENS && lastRefreshTime.putIfAbsent(token, now) != null) {
+            return;
+        }
+        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 清理超过刷新间隔的记录，由定时任务调用，不在请求线程上执行
+     */
+    public void evictStale() {
+        long now = System.currentTimeMillis();
+        lastRefreshTime.values().removeIf(time -> now - time >= REFRESH_INTERVAL_MILLIS);
+    }
+
+    // 字段固定，直接赋值，不走BeanUtil反射
+    private UserDTO toUserDTO(Map<Object, Object> userMap) {
+        UserDTO userDTO = new UserDTO();
+        Object id = userMap.get("id");
+        userDTO.setId(id == null ? null : Long.valueOf(id.toString()));
+        userDTO.setNickName((String) userMap.get("nickName"));
+        userDTO.setIcon((String) userMap.get("icon"));
+        return userDTO;
+    }
+}
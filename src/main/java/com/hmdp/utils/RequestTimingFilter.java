@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求耗时统计：按处理方法记录耗时分布和每个请求的redis、sql调用次数，
+ * 超过阈值的请求连同调用明细保存到SlowRequestLog
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestTimingFilter extends OncePerRequestFilter {
+    private static final String UNMAPPED = "unmapped";
+
+    private final MeterRegistry registry;
+    private final SlowRequestLog slowRequestLog;
+    private final boolean enabled;
+    private final long slowThresholdNanos;
+    private final ConcurrentHashMap<String, Meters> meters = new ConcurrentHashMap<>();
+
+    public RequestTimingFilter(MeterRegistry registry, SlowRequestLog slowRequestLog,
+                               @Value("${hmdp.trace.enabled:true}") boolean enabled,
+                               @Value("${hmdp.trace.slow-threshold:500}") long slowThresholdMillis) {
+        this.registry = registry;
+        this.slowRequestLog = slowRequestLog;
+        this.enabled = enabled;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+        RequestTrace trace = new RequestTrace();
+        RequestTrace.set(trace);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestTrace.remove();
+            if (request.isAsyncStarted()) {
+                // 异步处理的请求在真正完成时再统计
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        finish(request, response, trace);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                finish(request, response, trace);
+            }
+        }
+    }
+
+    private void finish(HttpServletRequest request, HttpServletResponse response, RequestTrace trace) {
+        long cost = System.nanoTime() - trace.getStartNanos();
+        String handler = handlerName(request);
+        Meters m = meters.get(handler);
+        if (m == null) {
+            m = meters.computeIfAbsent(handler, Meters::new);
+        }
+        m.latency.record(cost, TimeUnit.NANOSECONDS);
+        m.redisCalls.record(trace.getRedisCalls());
+        m.sqlCalls.record(trace.getSqlCalls());
+        if (cost >= slowThresholdNanos) {
+            slowRequestLog.add(trace.toSlowRequest(
+                    request.getMethod(), request.getRequestURI(), handler, response.getStatus(), cost));
+        }
+    }
+
+    private static String handlerName(HttpServletRequest request) {
+        Object handler = request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+        if (handler instanceof HandlerMethod) {
+            HandlerMethod handlerMethod = (HandlerMethod) handler;
+            return handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+        }
+        return UNMAPPED;
+    }
+
+    private final class Meters {
+        private final Timer latency;
+        private final DistributionSummary redisCalls;
+        private final DistributionSummary sqlCalls;
+
+        private Meters(String handler) {
+            latency = Timer.builder("request.handler")
+                    .tag("handler", handler)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            redisCalls = DistributionSummary.builder("request.redis.calls")
+                    .tag("handler", handler)
+                    .register(registry);
+            sqlCalls = DistributionSummary.builder("request.sql.calls")
+                    .tag("handler", handler)
+                    .register(registry);
+        }
+    }
+}
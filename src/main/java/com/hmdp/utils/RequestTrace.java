@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SlowRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前请求的调用跟踪，记录redis和sql的调用次数、耗时和明细，由RequestTimingFilter创建和清理
+ */
+public class RequestTrace {
+    private static final ThreadLocal<RequestTrace> tl = new ThreadLocal<>();
+    private static final int MAX_CALLS = 200;
+    private static final String REDIS = "redis";
+    private static final String SQL = "sql";
+
+    public static void set(RequestTrace trace) {
+        tl.set(trace);
+    }
+
+    public static RequestTrace current() {
+        return tl.get();
+    }
+
+    public static void remove() {
+        tl.remove();
+    }
+
+    public static void recordRedis(String command, long startNanos) {
+        RequestTrace trace = tl.get();
+        if (trace != null) {
+            trace.record(REDIS, command, startNanos);
+        }
+    }
+
+    public static void recordSql(String statement, long startNanos) {
+        RequestTrace trace = tl.get();
+        if (trace != null) {
+            trace.record(SQL, statement, startNanos);
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private int redisCalls;
+    private long redisNanos;
+    private int sqlCalls;
+    private long sqlNanos;
+    // 明细只保存原始数值，请求慢了才转换成SlowRequest
+    private final List<Object[]> calls = new ArrayList<>();
+    private int droppedCalls;
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public int getRedisCalls() {
+        return redisCalls;
+    }
+
+    public int getSqlCalls() {
+        return sqlCalls;
+    }
+
+    private void record(String type, String name, long callStartNanos) {
+        long cost = System.nanoTime() - callStartNanos;
+        if (REDIS.equals(type)) {
+            redisCalls++;
+            redisNanos += cost;
+        } else {
+            sqlCalls++;
+            sqlNanos += cost;
+        }
+        if (calls.size() < MAX_CALLS) {
+            calls.add(new Object[]{type, name, callStartNanos, cost});
+        } else {
+            droppedCalls++;
+        }
+    }
+
+    public SlowRequest toSlowRequest(String method, String uri, String handler, int status, long costNanos) {
+        SlowRequest slowRequest = new SlowRequest();
+        slowRequest.setTime(LocalDateTime.now());
+        slowRequest.setMethod(method);
+        slowRequest.setUri(uri);
+        slowRequest.setHandler(handler);
+        slowRequest.setStatus(status);
+        slowRequest.setCostMicros(TimeUnit.NANOSECONDS.toMicros(costNanos));
+        slowRequest.setRedisCalls(redisCalls);
+        slowRequest.setRedisMicros(TimeUnit.NANOSECONDS.toMicros(redisNanos));
+        slowRequest.setSqlCalls(sqlCalls);
+        slowRequest.setSqlMicros(TimeUnit.NANOSECONDS.toMicros(sqlNanos));
+        List<SlowRequest.Call> list = new ArrayList<>(calls.size());
+        for (Object[] raw : calls) {
+            SlowRequest.Call call = new SlowRequest.Call();
+            call.setType((String) raw[0]);
+            call.setName((String) raw[1]);
+            call.setStartMicros(TimeUnit.NANOSECONDS.toMicros((Long) raw[2] - startNanos));
+            call.setCostMicros(TimeUnit.NANOSECONDS.toMicros((Long) raw[3]));
+            list.add(call);
+        }
+        slowRequest.setCalls(list);
+        slowRequest.setDroppedCalls(droppedCalls);
+        return slowRequest;
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀链路的监控指标，用来观察抢购时的竞争情况
+ * <p>
+ * seckill.requests：秒杀请求耗时，result为ok/sold_out/duplicate/closed，engine为hmdp.seckill.mode，方便对比两种模式
+ * <p>
+ * seckill.order.lag：订单消息从入队到开始落库的等待时间；seckill.order.write：落库耗时，result为created/duplicate/sold_out
+ * <p>
+ * seckill.stock.update：扣减库存的update耗时，包含等待行锁的时间；seckill.lock.wait：db模式下等待用户锁的时间
+ * <p>
+ * seckill.order.redeliveries：从pending list重新处理的消息数；seckill.order.failures：落库失败次数；
+ * seckill.order.dead_letters：多次处理失败、转入死信stream的消息数；
+ * seckill.stock.reloads：redis里没有库存、从数据库重新加载的次数
+ */
+@Component
+public class SeckillMetrics {
+
+    public enum Result {
+        OK, SOLD_OUT, DUPLICATE, CLOSED;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    public enum WriteResult {
+        CREATED, DUPLICATE, SOLD_OUT;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private final Timer[] requests = new Timer[Result.values().length];
+    private final Timer[] writes = new Timer[WriteResult.values().length];
+    private final Timer lag;
+    private final Timer stockUpdate;
+    private final Timer lockWait;
+    private final Counter redeliveries;
+    private final Counter failures;
+    private final Counter deadLetters;
+    private final Counter reloads;
+
+    public SeckillMetrics(MeterRegistry registry, @Value("${hmdp.seckill.mode:redis}") String engine) {
+        for (Result result : Result.values()) {
+            requests[result.ordinal()] = Timer.builder("seckill.requests")
+                    .tag("result", result.tag).tag("engine", engine.toLowerCase())
+                    .publishPercentileHistogram().register(registry);
+        }
+        for (WriteResult result : WriteResult.values()) {
+            writes[result.ordinal()] = Timer.builder("seckill.order.write").tag("result", result.tag)
+                    .register(registry);
+        }
+        lag = Timer.builder("seckill.order.lag").publishPercentileHistogram().register(registry);
+        stockUpdate = Timer.builder("seckill.stock.update").publishPercentileHistogram().register(registry);
+        lockWait = Timer.builder("seckill.lock.wait").publishPercentileHistogram().register(registry);
+        redeliveries = Counter.builder("seckill.order.redeliveries").register(registry);
+        failures = Counter.builder("seckill.order.failures").register(registry);
+        deadLetters = Counter.builder("seckill.order.dead_letters").register(registry);
+        reloads = Counter.builder("seckill.stock.reloads").register(registry);
+    }
+
+    public void recordRequest(Result result, long startNanos) {
+        requests[result.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordWrite(WriteResult result, long startNanos) {
+        writes[result.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param enqueuedMillis 消息入队的时间戳，取自stream消息id
+     */
+    public void recordLag(long enqueuedMillis) {
+        lag.record(Math.max(0L, System.currentTimeMillis() - enqueuedMillis), TimeUnit.MILLISECONDS);
+    }
+
+    public void recordStockUpdate(long startNanos) {
+        stockUpdate.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLockWait(long startNanos) {
+        lockWait.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRedeliveries(int count) {
+        redeliveries.increment(count);
+    }
+
+    public void recordFailure() {
+        failures.increment();
+    }
+
+    public void recordDeadLetter() {
+        deadLetters.increment();
+    }
+
+    public void recordReload() {
+        reloads.increment();
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_DENYLIST_EXPIRE_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_DENYLIST_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_DENYLIST_SEQ_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 无状态的签名token：hmdp.session.mode=signed时启用。
+ * token格式为 base64(id:过期时间:base64(昵称):base64(头像)).base64(HmacSHA256签名)，校验只需要一次本地HMAC，不访问redis。
+ * 登出的token记入本地黑名单，并写入redis的zset，score是redis生成的递增序号，各实例按序号定时增量拉取，
+ * 不依赖各实例的时钟。redis不可用时校验不受影响
+ */
+@Slf4j
+@Component
+public class SignedTokenClient {
+    private static final String MODE_SIGNED = "signed";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final int PRUNE_BATCH = 1000;
+
+    private static final DefaultRedisScript<Long> REVOKE_SCRIPT;
+    private static final DefaultRedisScript<Long> PRUNE_SCRIPT;
+    static {
+        REVOKE_SCRIPT = new DefaultRedisScript<>();
+        REVOKE_SCRIPT.setLocation(new ClassPathResource("denylist_revoke.lua"));
+        REVOKE_SCRIPT.setResultType(Long.class);
+        PRUNE_SCRIPT = new DefaultRedisScript<>();
+        PRUNE_SCRIPT.setLocation(new ClassPathResource("denylist_prune.lua"));
+        PRUNE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final boolean enabled;
+    private final SecretKeySpec secretKey;
+    private final ThreadLocal<Mac> macHolder;
+    /**
+     * 黑名单，签名 -> token过期时间（秒）
+     */
+    private final ConcurrentHashMap<String, Long> denylist = new ConcurrentHashMap<>();
+    /**
+     * 已经拉取到的最大序号
+     */
+    private volatile long lastSyncSeq = 0;
+
+    public SignedTokenClient(StringRedisTemplate stringRedisTemplate,
+                             @Value("${hmdp.session.mode:redis}") String mode,
+                             @Value("${hmdp.session.secret:}") String secret) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = MODE_SIGNED.equalsIgnoreCase(mode);
+        if (enabled && StrUtil.length(secret) < 32) {
+            throw new IllegalStateException("hmdp.session.mode=signed时，hmdp.session.secret至少需要32个字符");
+        }
+        this.secretKey = enabled ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM) : null;
+        this.macHolder = ThreadLocal.withInitial(this::newMac);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            syncDenylist();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String issue(UserDTO user) {
+        long expireAt = System.currentTimeMillis() / 1000 + TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        String payload = user.getId() + ":" + expireAt + ":"
+                + encode(StrUtil.nullToEmpty(user.getNickName())) + ":"
+                + encode(StrUtil.nullToEmpty(user.getIcon()));
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+    }
+
+    /**
+     * 校验token，签名错误、已过期或已登出都返回null
+     */
+    public UserDTO verify(String token) {
+        try {
+            int dot = token.indexOf('.');
+            if (dot <= 0) {
+                return null;
+            }
+            // 1.校验签名
+            byte[] payloadBytes = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(payloadBytes))) {
+                return null;
+            }
+            // 2.校验过期时间和黑名单
+            String[] fields = new String(payloadBytes, StandardCharsets.UTF_8).split(":", -1);
+            if (fields.length != 4 || Long.parseLong(fields[1]) < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            if (!denylist.isEmpty() && denylist.containsKey(token.substring(dot + 1))) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(Long.valueOf(fields[0]));
+            user.setNickName(decode(fields[2]));
+            user.setIcon(decode(fields[3]));
+            return user;
+        } catch (IllegalArgumentException e) {
+            // base64或数字格式错误
+            return null;
+        }
+    }
+
+    public void revoke(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return;
+        }
+        String signature = token.substring(dot + 1);
+        String[] fields = new String(DECODER.decode(token.substring(0, dot)), StandardCharsets.UTF_8).split(":", -1);
+        long expireAt = fields.length == 4 ? Long.parseLong(fields[1]) : 0L;
+        denylist.put(signature, expireAt);
+        try {
+            // score为redis生成的序号，便于其他实例增量拉取
+            stringRedisTemplate.execute(REVOKE_SCRIPT,
+                    Arrays.asList(LOGIN_DENYLIST_KEY, LOGIN_DENYLIST_SEQ_KEY, LOGIN_DENYLIST_EXPIRE_KEY),
+                    signature + ":" + expireAt, String.valueOf(expireAt));
+        } catch (Exception e) {
+            log.error("登出token同步到redis失败", e);
+        }
+    }
+
+    @Scheduled(fixedDelay = 2000)
+    public void syncDenylist() {
+        if (!enabled) {
+            return;
+        }
+        long nowSeconds = System.currentTimeMillis() / 1000;
+        try {
+            // 1.增量拉取序号大于上次同步的记录
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(LOGIN_DENYLIST_KEY, lastSyncSeq + 1, Double.POSITIVE_INFINITY);
+            if (tuples != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                    String value = tuple.getValue();
+                    if (value == null || tuple.getScore() == null) {
+                        continue;
+                    }
+                    int index = value.lastIndexOf(':');
+                    denylist.put(value.substring(0, index), Long.valueOf(value.substring(index + 1)));
+                    lastSyncSeq = Math.max(lastSyncSeq, tuple.getScore().longValue());
+                }
+            }
+            // 2.token已经过期的记录没有意义了，从redis删除
+            stringRedisTemplate.execute(PRUNE_SCRIPT,
+                    Arrays.asList(LOGIN_DENYLIST_KEY, LOGIN_DENYLIST_EXPIRE_KEY),
+                    String.valueOf(nowSeconds), String.valueOf(PRUNE_BATCH));
+        } catch (Exception e) {
+            log.warn("同步登出黑名单失败：{}", e.getMessage());
+        }
+        // 3.本地删除已经过期的token
+        denylist.values().removeIf(expireAt -> expireAt < nowSeconds);
+    }
+
+    private byte[] sign(byte[] payload) {
+        Mac mac = macHolder.get();
+        return mac.doFinal(payload);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secretKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(String value) {
+        return ENCODER.encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value) {
+        return new String(DECODER.decode(value), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.SlowRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 最近的慢请求，固定大小的环形缓冲区，写满后覆盖最旧的
+ */
+@Component
+public class SlowRequestLog {
+    private static final int CAPACITY = 100;
+
+    private final AtomicReferenceArray<SlowRequest> buffer = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong cursor = new AtomicLong();
+
+    public void add(SlowRequest slowRequest) {
+        buffer.set((int) (cursor.getAndIncrement() % CAPACITY), slowRequest);
+    }
+
+    /**
+     * 最新的在前
+     */
+    public List<SlowRequest> list() {
+        long end = cursor.get();
+        List<SlowRequest> result = new ArrayList<>(CAPACITY);
+        for (long i = end - 1; i >= 0 && i >= end - CAPACITY; i--) {
+            SlowRequest slowRequest = buffer.get((int) (i % CAPACITY));
+            if (slowRequest != null) {
+                result.add(slowRequest);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步短信发送：请求线程只负责入队，后台线程批量取出交给短信网关，失败的按指数退避重试
+ */
+@Slf4j
+@Component
+public class SmsClient {
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int BATCH_SIZE = 100;
+    private static final int WORKER_COUNT = 2;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+
+    private final SmsTransport transport;
+    private final BlockingQueue<SmsMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ExecutorService workers =
+            Executors.newFixedThreadPool(WORKER_COUNT, new NamedThreadFactory("sms-sender-", true));
+    private final ScheduledExecutorService retryScheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("sms-retry-", true));
+    private volatile boolean running = true;
+
+    public SmsClient(ObjectProvider<SmsTransport> transportProvider) {
+        // 没有配置短信网关时使用本地桩
+        this.transport = transportProvider.getIfAvailable(StubSmsTransport::new);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < WORKER_COUNT; i++) {
+            workers.submit(this::deliverLoop);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        retryScheduler.shutdownNow();
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 短信入队，队列已满时返回false
+     */
+    public boolean send(String phone, String content) {
+        return queue.offer(new SmsMessage(phone, content));
+    }
+
+    private void deliverLoop() {
+        List<SmsMessage> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                // 1.阻塞等待第一条，再把队列中已有的凑成一批
+                SmsMessage first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                // 2.交给短信网关发送
+                deliver(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void deliver(List<SmsMessage> batch) {
+        List<SmsMessage> failed;
+        try {
+            failed = transport.send(batch);
+        } catch (Exception e) {
+            log.warn("短信批量发送失败，数量：{}，原因：{}", batch.size(), e.getMessage());
+            failed = batch;
+        }
+        if (failed == null) {
+            return;
+        }
+        for (SmsMessage message : failed) {
+            retry(message);
+        }
+    }
+
+    private void retry(SmsMessage message) {
+        message.setAttempts(message.getAttempts() + 1);
+        if (message.getAttempts() >= MAX_ATTEMPTS || !running) {
+            log.error("短信发送失败，已放弃，手机号：{}", message.getPhone());
+            return;
+        }
+        // 退避时间 500ms、1s、2s...
+        long delay = BASE_BACKOFF_MILLIS << (message.getAttempts() - 1);
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(message)) {
+                log.error("短信重试入队失败，队列已满，手机号：{}", message.getPhone());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
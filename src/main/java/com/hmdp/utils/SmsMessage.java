@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+@Data
+public class SmsMessage {
+    private String phone;
+    private String content;
+    /**
+     * 已经尝试发送的次数
+     */
+    private int attempts;
+
+    public SmsMessage(String phone, String content) {
+        this.phone = phone;
+        this.content = content;
+    }
+}
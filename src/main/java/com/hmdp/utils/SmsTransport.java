@@ -0,0 +1,16 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 短信网关，接入真实网关时实现该接口并注册为bean即可
+ */
+public interface SmsTransport {
+    /**
+     * 批量发送短信
+     *
+     * @param messages 待发送的短信
+     * @return 发送失败、需要重试的短信；整批失败时可以直接抛出异常
+     */
+    List<SmsMessage> send(List<SmsMessage> messages) throws Exception;
+}
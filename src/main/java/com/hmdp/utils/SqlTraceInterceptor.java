@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.PluginUtils;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+
+/**
+ * 记录每次sql执行到RequestTrace，名称为mapper方法，如UserMapper.selectById
+ */
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+        @Signature(type = StatementHandler.class, method = "update", args = {Statement.class}),
+        @Signature(type = StatementHandler.class, method = "batch", args = {Statement.class})
+})
+public class SqlTraceInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (RequestTrace.current() == null) {
+            return invocation.proceed();
+        }
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            RequestTrace.recordSql(statementName(invocation.getTarget()), start);
+        }
+    }
+
+    private static String statementName(Object target) {
+        StatementHandler handler = realTarget(target);
+        String id = PluginUtils.mpStatementHandler(handler).mappedStatement().getId();
+        // 去掉包名，保留Mapper类名和方法名
+        int i = id.lastIndexOf('.', id.lastIndexOf('.') - 1);
+        return i < 0 ? id : id.substring(i + 1);
+    }
+
+    /**
+     * 剥掉其它插件的代理。PluginUtils.realTarget通过反射读取Proxy.h，jdk9以上默认不允许，
+     * 这里用Proxy.getInvocationHandler拿到Plugin，只反射读取Plugin自己的target字段
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T realTarget(Object target) {
+        while (Proxy.isProxyClass(target.getClass())) {
+            Object plugin = Proxy.getInvocationHandler(target);
+            target = SystemMetaObject.forObject(plugin).getValue("target");
+        }
+        return (T) target;
+    }
+}
@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * 本地短信网关桩，只打印日志并保留最近发送的短信，用于开发和测试
+ */
+@Slf4j
+public class StubSmsTransport implements SmsTransport {
+    private static final int MAX_RECORDS = 100;
+
+    private final ConcurrentLinkedDeque<SmsMessage> sent = new ConcurrentLinkedDeque<>();
+
+    @Override
+    public List<SmsMessage> send(List<SmsMessage> messages) {
+        for (SmsMessage message : messages) {
+            log.info("发送短信成功，手机号：{}，内容：{}", message.getPhone(), message.getContent());
+            sent.addFirst(message);
+            if (sent.size() > MAX_RECORDS) {
+                sent.pollLast();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 最近发送的短信，最新的在前
+     */
+    public List<SmsMessage> getSentMessages() {
+        return new ArrayList<>(sent);
+    }
+}
@@ -1,8 +1,10 @@
 package com.hmdp.utils;
 
 public class SystemConstants {
-    public static final String IMAGE_UPLOAD_DIR = "D:\\lesson\\nginx-1.18.0\\html\\hmdp\\imgs\\";
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int COMMENT_REPLY_PREVIEW_SIZE = 3;
+    public static final int IMAGE_THUMBNAIL_WIDTH = 300;
+    public static final long IMAGE_THUMBNAIL_MAX_PIXELS = 40_000_000L;
 }
@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记需要统计UV的详情接口，接口路径中必须带有{id}
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TrackUv {
+    /**
+     * 页面类型，例如shop、blog
+     */
+    String value();
+}
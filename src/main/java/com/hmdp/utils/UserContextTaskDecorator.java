@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * 异步处理请求时，把提交线程上的登录用户和请求跟踪带到执行线程，执行完清理
+ */
+public class UserContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        UserDTO user = UserHolder.getUser();
+        RequestTrace trace = RequestTrace.current();
+        return () -> {
+            if (user != null) {
+                UserHolder.saveUser(user);
+            }
+            if (trace != null) {
+                RequestTrace.set(trace);
+            }
+            try {
+                runnable.run();
+            } finally {
+                UserHolder.removeUser();
+                RequestTrace.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.UV_DAY_TTL;
+import static com.hmdp.utils.RedisConstants.UV_KEY;
+import static com.hmdp.utils.RedisConstants.UV_TOTAL_TTL;
+
+/**
+ * UV统计：访问记录先缓存在本地队列，定时按key合并后用pipeline批量PFADD到HyperLogLog，
+ * 每个页面每天一个key，另有一个总量key，每个key最多约12KB。
+ * 总量key每次写入时续期，长期没有访问的页面会被清理
+ */
+@Slf4j
+@Component
+public class UvClient {
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String TOTAL_SUFFIX = "total";
+    private static final int MAX_BUFFER_SIZE = 100000;
+    private static final int MAX_RANGE_DAYS = 366;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ConcurrentLinkedQueue<String[]> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+
+    public UvClient(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public void record(String type, String id, String visitor) {
+        // 缓冲区满了直接丢弃，UV本身就是估算值，不能拖慢请求
+        if (bufferSize.incrementAndGet() > MAX_BUFFER_SIZE) {
+            bufferSize.decrementAndGet();
+            return;
+        }
+        buffer.offer(new String[]{dayKey(type, id, LocalDate.now()), totalKey(type, id), visitor});
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void flush() {
+        // 1.取出缓冲区中的记录，按key去重合并
+        Map<String, Set<String>> visitors = new HashMap<>();
+        Set<String> dayKeys = new HashSet<>();
+        Set<String> totalKeys = new HashSet<>();
+        String[] record;
+        while ((record = buffer.poll()) != null) {
+            bufferSize.decrementAndGet();
+            visitors.computeIfAbsent(record[0], k -> new HashSet<>()).add(record[2]);
+            visitors.computeIfAbsent(record[1], k -> new HashSet<>()).add(record[2]);
+            dayKeys.add(record[0]);
+            totalKeys.add(record[1]);
+        }
+        if (visitors.isEmpty()) {
+            return;
+        }
+        // 2.一次pipeline写入所有key，并设置过期时间
+        try {
+            RedisBatch batch = RedisBatch.pipeline(stringRedisTemplate);
+            visitors.forEach((key, values) -> batch.pfAdd(key, values.toArray(new String[0])));
+            dayKeys.forEach(key -> batch.expire(key, UV_DAY_TTL, TimeUnit.DAYS));
+            totalKeys.forEach(key -> batch.expire(key, UV_TOTAL_TTL, TimeUnit.DAYS));
+            batch.execute();
+        } catch (Exception e) {
+            log.error("UV数据写入redis失败", e);
+        }
+    }
+
+    /**
+     * 查询页面UV，begin和end都为空时返回总UV，否则返回[begin, end]内去重后的UV，范围不合法时返回null
+     */
+    public Long count(String type, String id, LocalDate begin, LocalDate end) {
+        if (begin == null && end == null) {
+            return stringRedisTemplate.opsForHyperLogLog().size(totalKey(type, id));
+        }
+        if (begin == null) {
+            begin = end;
+        }
+        if (end == null) {
+            end = LocalDate.now();
+        }
+        if (begin.isAfter(end) || begin.plusDays(MAX_RANGE_DAYS).isBefore(end)) {
+            return null;
+        }
+        // PFCOUNT多个key时会在服务端合并后计数，相当于PFMERGE后再PFCOUNT
+        List<String> keys = new ArrayList<>();
+        for (LocalDate day = begin; !day.isAfter(end); day = day.plusDays(1)) {
+            keys.add(dayKey(type, id, day));
+        }
+        return stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+    }
+
+    private String dayKey(String type, String id, LocalDate day) {
+        return UV_KEY + type + ":" + id + ":" + day.format(DAY_FORMATTER);
+    }
+
+    private String totalKey(String type, String id) {
+        return UV_KEY + type + ":" + id + ":" + TOTAL_SUFFIX;
+    }
+}
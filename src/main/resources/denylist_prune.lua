@@ -0,0 +1,10 @@
+-- 删除已经过期的黑名单记录
+-- KEYS[1] 黑名单zset，KEYS[2] 按过期时间排序的zset
+-- ARGV[1] 当前时间（秒），ARGV[2] 单次最多删除的条数
+-- 返回删除的条数
+local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', '(' .. ARGV[1], 'LIMIT', 0, ARGV[2])
+if #expired > 0 then
+    redis.call('ZREM', KEYS[1], unpack(expired))
+    redis.call('ZREM', KEYS[2], unpack(expired))
+end
+return #expired
@@ -0,0 +1,8 @@
+-- 登出的token写入黑名单
+-- KEYS[1] 黑名单zset，score为序号；KEYS[2] 序号计数器；KEYS[3] 按过期时间排序的zset
+-- ARGV[1] 签名:过期时间，ARGV[2] 过期时间（秒）
+-- 取序号和写入在同一个脚本里完成，序号大的记录一定后写入，各实例按序号增量拉取不会漏掉
+local seq = redis.call('INCR', KEYS[2])
+redis.call('ZADD', KEYS[1], seq, ARGV[1])
+redis.call('ZADD', KEYS[3], ARGV[2], ARGV[1])
+return seq
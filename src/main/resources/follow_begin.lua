@@ -0,0 +1,9 @@
+-- 关注或取关写数据库之前执行，标记双方有正在进行的写入
+-- KEYS 按用户成对传入：加载标识key、写入计数key；ARGV[1] 写入计数的过期秒数，进程异常退出时不会一直阻止加载
+-- 删除加载标识，让此时正在从数据库加载的请求放弃写入
+for i = 1, #KEYS, 2 do
+    redis.call('DEL', KEYS[i])
+    redis.call('INCR', KEYS[i + 1])
+    redis.call('EXPIRE', KEYS[i + 1], ARGV[1])
+end
+return 1
@@ -0,0 +1,27 @@
+-- 关注或取关写完数据库之后执行，增量更新已经加载的关注集合和计数，并结束写入标记
+-- KEYS[1] 当前用户的关注集合，KEYS[2] 当前用户的计数hash，KEYS[3] 被关注用户的计数hash，
+-- KEYS[4]之后按用户成对传入：加载标识key、写入计数key
+-- ARGV[1] 被关注的用户id，ARGV[2] 计数变化：1关注，-1取关，0数据库没有变化
+-- 写入期间不会有加载完成，已加载的数据一定是在写数据库之前读取的，增量更新不会重复计算
+local delta = tonumber(ARGV[2])
+if delta ~= 0 then
+    if redis.call('EXISTS', KEYS[2]) == 1 then
+        if delta > 0 then
+            redis.call('SADD', KEYS[1], ARGV[1])
+        else
+            redis.call('SREM', KEYS[1], ARGV[1])
+        end
+        redis.call('HINCRBY', KEYS[2], 'followee', delta)
+    end
+    if redis.call('EXISTS', KEYS[3]) == 1 then
+        redis.call('HINCRBY', KEYS[3], 'fans', delta)
+    end
+end
+-- 写入期间开始的加载读到的数据可能不包含这次写入，一并作废
+for i = 4, #KEYS, 2 do
+    redis.call('DEL', KEYS[i])
+    if redis.call('DECR', KEYS[i + 1]) <= 0 then
+        redis.call('DEL', KEYS[i + 1])
+    end
+end
+return 1
@@ -0,0 +1,16 @@
+-- 把从数据库读取的关注集合和计数写入redis
+-- KEYS[1] 关注集合，KEYS[2] 计数hash，KEYS[3] 加载标识，KEYS[4] 写入计数
+-- ARGV[1] 本次加载的标识，ARGV[2] 关注数，ARGV[3] 粉丝数，ARGV[4]之后为关注的用户id
+-- 已经加载过、加载期间有写入开始或结束（标识被删除）、仍有写入在进行时都放弃，读到的数据可能已经过期
+if redis.call('EXISTS', KEYS[2]) == 1
+        or redis.call('GET', KEYS[3]) ~= ARGV[1]
+        or redis.call('EXISTS', KEYS[4]) == 1 then
+    return 0
+end
+redis.call('DEL', KEYS[1])
+for i = 4, #ARGV do
+    redis.call('SADD', KEYS[1], ARGV[i])
+end
+redis.call('HSET', KEYS[2], 'followee', ARGV[2], 'fans', ARGV[3])
+redis.call('DEL', KEYS[3])
+return 1
@@ -0,0 +1,7 @@
+-- 释放一个引用者对图片的引用，同一个引用者重复释放只有第一次生效
+-- KEYS[1] 图片的引用者set，ARGV[1] 引用者id
+-- 返回-1表示不是引用者，否则返回剩余的引用者数，set为空时redis会自动删除
+if redis.call('SREM', KEYS[1], ARGV[1]) == 0 then
+    return -1
+end
+return redis.call('SCARD', KEYS[1])
@@ -0,0 +1,18 @@
+-- 秒杀资格判断，库存扣减和下单消息在一个脚本里原子完成
+-- KEYS[1] 库存key，KEYS[2] 已下单用户set，KEYS[3] 订单消息stream
+-- ARGV[1] 优惠券id，ARGV[2] 用户id，ARGV[3] 订单id
+-- 返回 0：成功；1：库存不足；2：重复下单；3：库存未加载
+local stock = redis.call('GET', KEYS[1])
+if not stock then
+    return 3
+end
+if tonumber(stock) <= 0 then
+    return 1
+end
+if redis.call('SISMEMBER', KEYS[2], ARGV[2]) == 1 then
+    return 2
+end
+redis.call('INCRBY', KEYS[1], -1)
+redis.call('SADD', KEYS[2], ARGV[2])
+redis.call('XADD', KEYS[3], '*', 'voucherId', ARGV[1], 'userId', ARGV[2], 'id', ARGV[3])
+return 0
@@ -0,0 +1,7 @@
+-- 补充秒杀券库存，KEYS[1] 库存key，ARGV[1] 补充的数量
+-- 库存key不存在时不创建，下次秒杀时按数据库重新加载，避免只写入补充的数量
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return 0
+end
+redis.call('INCRBY', KEYS[1], ARGV[1])
+return 1
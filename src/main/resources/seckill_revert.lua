@@ -0,0 +1,8 @@
+-- 订单落库时数据库库存不足，撤销秒杀脚本里的扣减，让redis和数据库保持一致
+-- KEYS[1] 库存key，KEYS[2] 已下单用户set，ARGV[1] 用户id
+-- 只有用户还在已下单set里时才归还库存，消息重复投递时不会重复归还
+if redis.call('SREM', KEYS[2], ARGV[1]) == 0 then
+    return 0
+end
+redis.call('INCRBY', KEYS[1], 1)
+return 1
@@ -0,0 +1,16 @@
+-- 商铺列表缓存的增量维护，列表还没有加载时不处理，避免写出不完整的列表
+-- KEYS 列表key，ARGV[1] 商铺id，ARGV[i + 1] 商铺在KEYS[i]里的排序值，为空字符串时从列表移除
+-- 返回实际修改的列表数
+local changed = 0
+for i, key in ipairs(KEYS) do
+    if redis.call('EXISTS', key) == 1 then
+        local score = ARGV[i + 1]
+        if score == '' then
+            redis.call('ZREM', key, ARGV[1])
+        else
+            redis.call('ZADD', key, score, ARGV[1])
+        end
+        changed = changed + 1
+    end
+end
+return changed
@@ -0,0 +1,25 @@
+-- 按均价范围筛选一个类型在一种排序下的列表，结果写入短期缓存，之后的分页直接按排名读取
+-- KEYS[1] 排序列表key，KEYS[2] 均价列表key，KEYS[3] 筛选结果key
+-- ARGV[1] 最低均价，ARGV[2] 最高均价，为空字符串时不限制，ARGV[3] 筛选结果的过期时间（秒）
+-- 返回1表示新建了筛选结果，0表示已经存在，-1表示排序列表或均价列表还没有加载
+if redis.call('EXISTS', KEYS[3]) == 1 then
+    return 0
+end
+if redis.call('EXISTS', KEYS[1]) == 0 or redis.call('EXISTS', KEYS[2]) == 0 then
+    return -1
+end
+-- 1.两个列表求交集，排序值取均价，去掉占位成员后按均价删掉范围外的商铺
+redis.call('ZINTERSTORE', KEYS[3], 2, KEYS[2], KEYS[1], 'WEIGHTS', 1, 0)
+redis.call('ZREM', KEYS[3], '')
+if ARGV[1] ~= '' then
+    redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', '(' .. ARGV[1])
+end
+if ARGV[2] ~= '' then
+    redis.call('ZREMRANGEBYSCORE', KEYS[3], '(' .. ARGV[2], '+inf')
+end
+-- 2.再和排序列表求交集，排序值换回排序列表的值
+redis.call('ZINTERSTORE', KEYS[3], 2, KEYS[3], KEYS[1], 'WEIGHTS', 0, 1)
+-- 3.加入占位成员，没有商铺的筛选结果也能缓存下来
+redis.call('ZADD', KEYS[3], '-inf', '')
+redis.call('EXPIRE', KEYS[3], ARGV[3])
+return 1
@@ -0,0 +1,11 @@
+-- 把重建好的临时列表改名为正式列表
+-- 正式列表已经存在时丢弃临时列表，不覆盖其它请求已经重建、之后又被增量修改过的列表
+-- KEYS[1] 正式列表key，KEYS[2] 临时列表key，ARGV[1] 过期时间（秒）
+-- 返回1表示使用了本次重建的列表，0表示丢弃
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    redis.call('DEL', KEYS[2])
+    return 0
+end
+redis.call('RENAME', KEYS[2], KEYS[1])
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+return 1
@@ -0,0 +1,37 @@
+-- 从游标(排序值, 商铺id)之后读取列表缓存的一页，游标对应的商铺移动了位置或已经移除都不影响结果
+-- 成员是定长补零的商铺id，排序值相同的成员按字典序排列，也就是按id排列
+-- KEYS[1] 列表key，ARGV[1] 1：排序值倒序，0：正序，ARGV[2] 游标的排序值，ARGV[3] 游标的成员，ARGV[4] 条数
+-- 返回 成员, 排序值, 成员, 排序值...
+local desc = ARGV[1] == '1'
+local member = ARGV[3]
+local count = tonumber(ARGV[4])
+-- 1.排在游标的排序值之前的成员数，和排序值与游标相同的成员数
+local start
+if desc then
+    start = redis.call('ZCOUNT', KEYS[1], '(' .. ARGV[2], '+inf')
+else
+    start = redis.call('ZCOUNT', KEYS[1], '-inf', '(' .. ARGV[2])
+end
+local ties = redis.call('ZCOUNT', KEYS[1], ARGV[2], ARGV[2])
+-- 2.在排序值相同的成员里二分查找第一个排在游标之后的成员
+local lo, hi = 0, ties
+while lo < hi do
+    local mid = math.floor((lo + hi) / 2)
+    local m
+    if desc then
+        m = redis.call('ZREVRANGE', KEYS[1], start + mid, start + mid)[1]
+    else
+        m = redis.call('ZRANGE', KEYS[1], start + mid, start + mid)[1]
+    end
+    if (desc and m < member) or (not desc and m > member) then
+        hi = mid
+    else
+        lo = mid + 1
+    end
+end
+-- 3.从这个位置开始取一页
+local from = start + lo
+if desc then
+    return redis.call('ZREVRANGE', KEYS[1], from, from + count - 1, 'WITHSCORES')
+end
+return redis.call('ZRANGE', KEYS[1], from, from + count - 1, 'WITHSCORES')
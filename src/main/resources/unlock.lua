@@ -0,0 +1,6 @@
+-- 只有锁的值还是自己的标识时才删除，避免锁过期后误删别人加的锁
+-- KEYS[1] 锁的key，ARGV[1] 加锁时写入的标识
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('DEL', KEYS[1])
+end
+return 0
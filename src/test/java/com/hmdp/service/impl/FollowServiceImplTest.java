@@ -0,0 +1,137 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserService;
+import com.hmdp.standin.StandInTest;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 关注集合和计数缓存：并发的加载和关注、取关之后，缓存和数据库一致
+ */
+class FollowServiceImplTest extends StandInTest {
+
+    private static final AtomicLong PHONES = new AtomicLong(13900000000L);
+
+    @Resource
+    private IFollowService followService;
+
+    @Resource
+    private IUserService userService;
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void followingMissingUserFails() {
+        long userId = newUser();
+        login(userId);
+        Result result = followService.follow(Long.MAX_VALUE, true);
+        assertFalse(result.getSuccess());
+        assertEquals("用户不存在", result.getErrorMsg());
+    }
+
+    @Test
+    void countsMatchDatabaseAfterConcurrentLoadsAndWrites() throws Exception {
+        long target = newUser();
+        List<Long> fans = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            fans.add(newUser());
+        }
+        // 关注和读取计数同时进行，读取会在缓存未加载时从数据库加载
+        runConcurrently(fans, fan -> {
+            login(fan);
+            followService.follow(target, true);
+            followService.queryFollowCount(target);
+        });
+        assertFollowCounts(target, 0L, 16L);
+        // 一半取关，同时其它人继续读取
+        runConcurrently(fans, fan -> {
+            login(fan);
+            if (fan % 2 == 0) {
+                followService.follow(target, false);
+            } else {
+                followService.queryFollowCount(fan);
+            }
+            followService.queryFollowCount(target);
+        });
+        long remaining = fans.stream().filter(fan -> fan % 2 != 0).count();
+        assertFollowCounts(target, 0L, remaining);
+        for (Long fan : fans) {
+            login(fan);
+            assertEquals(fan % 2 != 0, followService.isFollow(target).getData());
+            assertFollowCounts(fan, fan % 2 != 0 ? 1L : 0L, 0L);
+        }
+    }
+
+    private void assertFollowCounts(long userId, long followee, long fans) {
+        @SuppressWarnings("unchecked")
+        Map<String, Long> counts = (Map<String, Long>) followService.queryFollowCount(userId).getData();
+        assertEquals(followee, (long) counts.get("followee"));
+        assertEquals(fans, (long) counts.get("fans"));
+        assertEquals(fans, (long) followService.query().eq("follow_user_id", userId).count());
+    }
+
+    private interface UserTask {
+        void run(Long userId);
+    }
+
+    private static void runConcurrently(List<Long> userIds, UserTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(userIds.size());
+        try {
+            CountDownLatch ready = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (Long userId : userIds) {
+                futures.add(executor.submit(() -> {
+                    ready.await();
+                    try {
+                        task.run(userId);
+                    } finally {
+                        UserHolder.removeUser();
+                    }
+                    return null;
+                }));
+            }
+            ready.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private long newUser() {
+        User user = new User()
+                .setPhone(String.valueOf(PHONES.incrementAndGet()))
+                .setNickName("test user");
+        assertTrue(userService.save(user));
+        return user.getId();
+    }
+
+    private static void login(long userId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+    }
+}
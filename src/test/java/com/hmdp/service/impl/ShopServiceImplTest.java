@@ -0,0 +1,221 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.standin.StandInTest;
+import com.hmdp.utils.KeysetCursor;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商铺列表缓存的分页：同分商铺的顺序、游标翻页和均价筛选都要和一次完整读取的结果一致
+ */
+class ShopServiceImplTest extends StandInTest {
+
+    /**
+     * 每个用例使用独立的商铺类型，互不影响列表缓存
+     */
+    private static final AtomicLong TYPE_IDS = new AtomicLong(1000);
+
+    @Resource
+    private IShopService shopService;
+
+    @Test
+    void tiedShopsKeepOneOrderAcrossPagesAndCursors() {
+        long typeId = TYPE_IDS.incrementAndGet();
+        // 12家商铺只有3种销量，大部分排序值相同
+        for (int i = 0; i < 12; i++) {
+            saveShop(typeId, 100 + (i % 3) * 10, 50L);
+        }
+        List<Shop> paged = new ArrayList<>();
+        for (int current = 1; current <= 3; current++) {
+            Result result = shopService.queryShopByType((int) typeId, current, "sold", null, null, true);
+            assertEquals(12L, result.getTotal());
+            paged.addAll(shops(result));
+        }
+        List<Shop> scrolled = scrollAll(typeId, null, null);
+
+        List<Long> pagedIds = ids(paged);
+        assertEquals(12, new HashSet<>(pagedIds).size());
+        assertEquals(pagedIds, ids(scrolled));
+        // 销量倒序，销量相同时按id倒序
+        for (int i = 1; i < paged.size(); i++) {
+            Shop prev = paged.get(i - 1);
+            Shop next = paged.get(i);
+            assertTrue(prev.getSold() > next.getSold()
+                    || prev.getSold().equals(next.getSold()) && prev.getId() > next.getId());
+        }
+        // 再读一次顺序不变
+        assertEquals(pagedIds, ids(scrollAll(typeId, null, null)));
+    }
+
+    @Test
+    void cursorContinuesAfterItsShopLeavesTheListing() {
+        long typeId = TYPE_IDS.incrementAndGet();
+        for (int i = 1; i <= 8; i++) {
+            saveShop(typeId, i * 10, 50L);
+        }
+        CursorResult first = cursorResult(shopService.scrollShopByType((int) typeId, "sold", null, null, null));
+        List<Shop> page = shops(first);
+        assertNotNull(first.getNext());
+        // 游标指向的商铺换到别的类型，从列表里移除
+        Shop last = page.get(page.size() - 1);
+        assertTrue(shopService.update(new Shop().setId(last.getId()).setTypeId(TYPE_IDS.incrementAndGet())).getSuccess());
+
+        CursorResult second = cursorResult(shopService.scrollShopByType((int) typeId, "sold", null, null, first.getNext()));
+        List<Integer> sold = shops(second).stream().map(Shop::getSold).collect(Collectors.toList());
+        // 按排序值继续往后取，不重复也不遗漏
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 8 - page.size(); i >= 1; i--) {
+            expected.add(i * 10);
+        }
+        assertEquals(expected, sold);
+    }
+
+    @Test
+    void cursorKeepsTiedShopsAfterItsShopLeavesTheListing() {
+        long typeId = TYPE_IDS.incrementAndGet();
+        for (int i = 0; i < 9; i++) {
+            saveShop(typeId, 100, 50L);
+        }
+        List<Long> all = ids(scrollAll(typeId, null, null));
+        CursorResult first = cursorResult(shopService.scrollShopByType((int) typeId, "sold", null, null, null));
+        List<Shop> page = shops(first);
+        Shop last = page.get(page.size() - 1);
+        assertTrue(shopService.update(new Shop().setId(last.getId()).setTypeId(TYPE_IDS.incrementAndGet())).getSuccess());
+
+        // 和游标销量相同的商铺一个都不能少
+        List<Long> rest = ids(scrollFrom(typeId, first.getNext()));
+        assertEquals(all.subList(page.size(), all.size()), rest);
+    }
+
+    @Test
+    void cursorIgnoresScoreChangesOfItsShop() {
+        long typeId = TYPE_IDS.incrementAndGet();
+        for (int i = 0; i < 12; i++) {
+            saveShop(typeId, 100 + (i % 2) * 10, 50L);
+        }
+        List<Long> all = ids(scrollAll(typeId, null, null));
+        CursorResult first = cursorResult(shopService.scrollShopByType((int) typeId, "sold", null, null, null));
+        int seen = shops(first).size();
+        Shop last = shops(first).get(seen - 1);
+
+        // 游标对应的商铺销量变大，排到列表最前面，下一页仍然从游标的位置继续
+        assertTrue(shopService.update(new Shop().setId(last.getId()).setSold(1000)).getSuccess());
+        assertEquals(all.subList(seen, all.size()), ids(scrollFrom(typeId, first.getNext())));
+        // 销量变小，排到列表最后面，结果也一样
+        assertTrue(shopService.update(new Shop().setId(last.getId()).setSold(1)).getSuccess());
+        List<Long> rest = ids(scrollFrom(typeId, first.getNext()));
+        assertEquals(all.subList(seen, all.size()), rest.subList(0, rest.size() - 1));
+        assertEquals(last.getId(), rest.get(rest.size() - 1));
+    }
+
+    @Test
+    void priceRangeMatchesTheDatabase() {
+        long typeId = TYPE_IDS.incrementAndGet();
+        for (int i = 1; i <= 10; i++) {
+            saveShop(typeId, i * 10, i * 20L);
+        }
+        List<Shop> scrolled = scrollAll(typeId, 60L, 160L);
+        List<Long> expected = ids(shopService.query()
+                .eq("type_id", typeId).between("avg_price", 60L, 160L)
+                .orderByDesc("sold").list());
+        assertEquals(expected, ids(scrolled));
+
+        Result total = shopService.queryShopByType((int) typeId, 1, "sold", 60L, 160L, true);
+        assertEquals((long) expected.size(), total.getTotal());
+        assertEquals(expected.subList(0, shops(total).size()), ids(shops(total)));
+    }
+
+    @Test
+    void reactiveListingMatchesTheBlockingOne() {
+        long typeId = TYPE_IDS.incrementAndGet();
+        for (int i = 0; i < 12; i++) {
+            saveShop(typeId, 100 + (i % 3) * 10, 50L);
+        }
+        for (int current = 1; current <= 3; current++) {
+            Result blocking = shopService.queryShopByType((int) typeId, current, "sold", null, null, false);
+            Result reactive = shopService.queryShopByTypeReactive((int) typeId, current, "sold").block();
+            assertNotNull(reactive);
+            assertEquals(ids(shops(blocking)), ids(shops(reactive)));
+        }
+        assertFalse(shopService.queryShopByTypeReactive((int) typeId, 1, "unknown").block().getSuccess());
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        Result result = shopService.scrollShopByType(1, "sold", null, null, "not-a-cursor");
+        assertFalse(result.getSuccess());
+        String cursor = new KeysetCursor(1L, 1L).encode();
+        assertTrue(shopService.scrollShopByType(1, "sold", null, null, cursor).getSuccess());
+    }
+
+    private void saveShop(long typeId, int sold, Long avgPrice) {
+        Shop shop = new Shop()
+                .setName("test shop " + typeId)
+                .setTypeId(typeId)
+                .setImages("")
+                .setAddress("test")
+                .setX(120.0)
+                .setY(30.0)
+                .setAvgPrice(avgPrice)
+                .setSold(sold)
+                .setComments(0)
+                .setScore(40);
+        shopService.saveShop(shop);
+    }
+
+    private List<Shop> scrollFrom(long typeId, String cursor) {
+        List<Shop> shops = new ArrayList<>();
+        while (cursor != null) {
+            CursorResult result = cursorResult(shopService.scrollShopByType((int) typeId, "sold", null, null, cursor));
+            shops.addAll(shops(result));
+            cursor = result.getNext();
+        }
+        return shops;
+    }
+
+    private List<Shop> scrollAll(long typeId, Long minPrice, Long maxPrice) {
+        List<Shop> shops = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorResult result = cursorResult(shopService.scrollShopByType((int) typeId, "sold", minPrice, maxPrice, cursor));
+            shops.addAll(shops(result));
+            cursor = result.getNext();
+        } while (cursor != null);
+        return shops;
+    }
+
+    private static CursorResult cursorResult(Result result) {
+        assertTrue(result.getSuccess(), result.getErrorMsg());
+        return (CursorResult) result.getData();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Shop> shops(Result result) {
+        assertTrue(result.getSuccess(), result.getErrorMsg());
+        return (List<Shop>) result.getData();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Shop> shops(CursorResult result) {
+        return (List<Shop>) result.getList();
+    }
+
+    private static List<Long> ids(List<Shop> shops) {
+        return shops.stream().map(Shop::getId).collect(Collectors.toList());
+    }
+}
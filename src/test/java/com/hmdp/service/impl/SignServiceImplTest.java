@@ -0,0 +1,110 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.service.ISignService;
+import com.hmdp.standin.StandInTest;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 连续签到跨月统计：未归档的月份读位图，归档到tb_sign的月份从数据库继续追溯
+ */
+class SignServiceImplTest extends StandInTest {
+
+    private static final AtomicLong USER_IDS = new AtomicLong(900000);
+
+    @Resource
+    private ISignService signService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void noSignTodayMeansNoStreak() {
+        login();
+        assertEquals(0, signService.signCount().getData());
+    }
+
+    @Test
+    void streakContinuesIntoLastMonth() {
+        long userId = login();
+        LocalDate today = LocalDate.now();
+        signDays(userId, today.withDayOfMonth(1), today);
+        // 上个月只连续签到了最后两天，再往前断签
+        YearMonth lastMonth = YearMonth.now().minusMonths(1);
+        signDays(userId, lastMonth.atEndOfMonth().minusDays(1), lastMonth.atEndOfMonth());
+        signDays(userId, lastMonth.atEndOfMonth().minusDays(3), lastMonth.atEndOfMonth().minusDays(3));
+
+        assertEquals(today.getDayOfMonth() + 2, signService.signCount().getData());
+    }
+
+    @Test
+    void streakFollowsArchivedMonths() {
+        long userId = login();
+        LocalDate today = LocalDate.now();
+        YearMonth lastMonth = YearMonth.now().minusMonths(1);
+        YearMonth twoMonthsAgo = YearMonth.now().minusMonths(2);
+        YearMonth threeMonthsAgo = YearMonth.now().minusMonths(3);
+        signDays(userId, lastMonth.atDay(1), today);
+        signDays(userId, twoMonthsAgo.atDay(1), twoMonthsAgo.atEndOfMonth());
+        signDays(userId, threeMonthsAgo.atEndOfMonth().minusDays(1), threeMonthsAgo.atEndOfMonth());
+        signDays(userId, threeMonthsAgo.atDay(1), threeMonthsAgo.atDay(1));
+        // 两个月前和三个月前的位图转存到数据库
+        signService.archive(threeMonthsAgo);
+        signService.archive(twoMonthsAgo);
+        assertFalse(stringRedisTemplate.hasKey(signKey(userId, twoMonthsAgo)));
+
+        int expected = today.getDayOfMonth() + lastMonth.lengthOfMonth() + twoMonthsAgo.lengthOfMonth() + 2;
+        assertEquals(expected, signService.signCount().getData());
+        String month = twoMonthsAgo.format(DateTimeFormatter.ofPattern("yyyyMM"));
+        assertEquals(twoMonthsAgo.lengthOfMonth(), signService.queryMonthSignCount(month).getData());
+    }
+
+    @Test
+    void archivingTwiceDoesNotDuplicateRows() {
+        long userId = login();
+        YearMonth twoMonthsAgo = YearMonth.now().minusMonths(2);
+        signDays(userId, twoMonthsAgo.atDay(1), twoMonthsAgo.atDay(5));
+        signService.archive(twoMonthsAgo);
+        // 再次写入相同的位图，模拟删除位图前中断后重新归档
+        signDays(userId, twoMonthsAgo.atDay(1), twoMonthsAgo.atDay(5));
+        signService.archive(twoMonthsAgo);
+
+        assertEquals(5, (int) signService.query().eq("user_id", userId).count());
+    }
+
+    private long login() {
+        long userId = USER_IDS.incrementAndGet();
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+        return userId;
+    }
+
+    private void signDays(long userId, LocalDate from, LocalDate to) {
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            stringRedisTemplate.opsForValue().setBit(signKey(userId, YearMonth.from(date)), date.getDayOfMonth() - 1, true);
+        }
+    }
+
+    private static String signKey(long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(DateTimeFormatter.ofPattern("yyyyMM"));
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.UserInfoDTO;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.service.IUserInfoService;
+import com.hmdp.standin.StandInTest;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Resource;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 修改用户详情：第一次修改时新增一行，主键是当前用户的id
+ */
+class UserInfoServiceImplTest extends StandInTest {
+
+    private static final AtomicLong USER_IDS = new AtomicLong(800000);
+
+    @Resource
+    private IUserInfoService userInfoService;
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void firstUpdateInsertsRowForCurrentUser() {
+        long userId = login();
+        assertTrue(userInfoService.updateUserInfo(new UserInfo().setCity("杭州").setIntroduce("hello")).getSuccess());
+
+        UserInfo saved = userInfoService.getById(userId);
+        assertNotNull(saved);
+        assertEquals("杭州", saved.getCity());
+        assertEquals(1, (int) userInfoService.query().eq("user_id", userId).count());
+    }
+
+    @Test
+    void laterUpdateChangesTheSameRowAndKeepsProtectedFields() {
+        long userId = login();
+        userInfoService.updateUserInfo(new UserInfo().setCity("杭州"));
+        assertEquals("杭州", ((UserInfoDTO) userInfoService.queryUserInfo(userId).getData()).getCity());
+        userInfoService.updateUserInfo(new UserInfo().setUserId(1L).setCity("上海").setCredits(9999));
+
+        UserInfo saved = userInfoService.getById(userId);
+        assertEquals("上海", saved.getCity());
+        assertEquals(0, (int) saved.getCredits());
+        assertEquals(1, (int) userInfoService.query().eq("user_id", userId).count());
+        // 修改后缓存失效，查询读到新的资料
+        assertEquals("上海", ((UserInfoDTO) userInfoService.queryUserInfo(userId).getData()).getCity());
+    }
+
+    private long login() {
+        long userId = USER_IDS.incrementAndGet();
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+        return userId;
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.standin.StandInTest;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_DEAD_LETTER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAM_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * redis模式的订单消息消费：无法落库的消息多次重试后转入死信stream，不阻塞其它订单
+ */
+class VoucherOrderConsumerTest extends StandInTest {
+
+    private static final AtomicLong USER_IDS = new AtomicLong(700000);
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void poisonMessageMovesToDeadLetterStream() throws InterruptedException {
+        long voucherId = addSeckillVoucher(10);
+        // 订单id无法解析，落库时一直失败
+        Map<String, String> poison = new HashMap<>();
+        poison.put("voucherId", String.valueOf(voucherId));
+        poison.put("userId", String.valueOf(USER_IDS.incrementAndGet()));
+        poison.put("id", "not-a-number");
+        RecordId poisonId = stringRedisTemplate.opsForStream()
+                .add(StreamRecords.newRecord().in(SECKILL_STREAM_KEY).ofMap(poison));
+
+        // 之后的正常订单照常落库
+        UserDTO user = new UserDTO();
+        user.setId(USER_IDS.incrementAndGet());
+        UserHolder.saveUser(user);
+        Result result = voucherOrderService.seckillVoucher(voucherId);
+        assertTrue(result.getSuccess(), result.getErrorMsg());
+        long orderId = (Long) result.getData();
+        awaitTrue(() -> voucherOrderService.getById(orderId) != null);
+
+        awaitTrue(() -> stringRedisTemplate.opsForStream().range(SECKILL_DEAD_LETTER_KEY, Range.unbounded()).stream()
+                .map(MapRecord::getValue)
+                .anyMatch(value -> poisonId.getValue().equals(value.get("sourceId"))));
+        // 转入死信后已确认，不再留在pending list
+        awaitTrue(() -> stringRedisTemplate.opsForStream()
+                .pending(SECKILL_STREAM_KEY, SECKILL_STREAM_GROUP, Range.closed(poisonId.getValue(), poisonId.getValue()), 1L)
+                .isEmpty());
+        // 失败的落库事务已回滚，数据库只扣减了正常订单的库存
+        assertEquals(9, (int) seckillVoucherService.getById(voucherId).getStock());
+    }
+
+    private long addSeckillVoucher(int stock) {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("test voucher")
+                .setPayValue(100L)
+                .setActualValue(200L)
+                .setType(1)
+                .setStock(stock)
+                .setBeginTime(LocalDateTime.now().minusHours(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.standin.StandInTest;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * db模式的秒杀：一人一单在发放许可之前判断，补充库存后许可按新库存重新发放
+ */
+@SpringBootTest(properties = "hmdp.seckill.mode=db")
+class VoucherOrderServiceImplTest extends StandInTest {
+
+    private static final AtomicLong USER_IDS = new AtomicLong(800000);
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @AfterEach
+    void clearUser() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void duplicateIsReportedAfterStockRunsOut() {
+        long voucherId = addSeckillVoucher(1);
+        long userId = USER_IDS.incrementAndGet();
+        assertTrue(seckill(voucherId, userId).getSuccess());
+
+        // 库存已抢完，已经下过单的用户仍然收到重复下单，而不是库存不足
+        assertEquals("不能重复下单", seckill(voucherId, userId).getErrorMsg());
+        assertEquals("库存不足", seckill(voucherId, USER_IDS.incrementAndGet()).getErrorMsg());
+    }
+
+    @Test
+    void restockReissuesAdmissions() {
+        long voucherId = addSeckillVoucher(1);
+        assertTrue(seckill(voucherId, USER_IDS.incrementAndGet()).getSuccess());
+        long userId = USER_IDS.incrementAndGet();
+        assertFalse(seckill(voucherId, userId).getSuccess());
+
+        assertTrue(voucherService.addSeckillStock(voucherId, 1).getSuccess());
+        assertTrue(seckill(voucherId, userId).getSuccess());
+        assertEquals("库存不足", seckill(voucherId, USER_IDS.incrementAndGet()).getErrorMsg());
+        assertFalse(voucherService.addSeckillStock(voucherId, 0).getSuccess());
+    }
+
+    private long addSeckillVoucher(int stock) {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("test voucher")
+                .setPayValue(100L)
+                .setActualValue(200L)
+                .setType(1)
+                .setStock(stock)
+                .setBeginTime(LocalDateTime.now().minusHours(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    private Result seckill(long voucherId, long userId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+        return voucherOrderService.seckillVoucher(voucherId);
+    }
+}
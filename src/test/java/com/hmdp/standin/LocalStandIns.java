@@ -0,0 +1,136 @@
+package com.hmdp.standin;
+
+import com.hmdp.HmDianPingApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 测试和压测用的本地替身：随机端口上的嵌入式redis，和按db/hmdp.sql初始化的H2内存库（MySQL兼容模式）
+ */
+public final class LocalStandIns implements AutoCloseable {
+
+    private static final String JDBC_URL =
+            "jdbc:h2:mem:hmdp;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private final RedisServer redisServer;
+    private final int redisPort;
+    private final Path imageRoot;
+
+    private static LocalStandIns shared;
+
+    private LocalStandIns(RedisServer redisServer, int redisPort, Path imageRoot) {
+        this.redisServer = redisServer;
+        this.redisPort = redisPort;
+        this.imageRoot = imageRoot;
+    }
+
+    public static LocalStandIns start() throws IOException, SQLException {
+        // 1.嵌入式redis，不落盘
+        int port = freePort();
+        RedisServer redisServer = RedisServer.newRedisServer()
+                .port(port)
+                .bind("127.0.0.1")
+                .setting("save \"\"")
+                .setting("appendonly no")
+                .build();
+        redisServer.start();
+        // 2.H2内存库，执行转换后的建表和初始数据脚本
+        seedDatabase();
+        return new LocalStandIns(redisServer, port, Files.createTempDirectory("hmdp-loadtest-imgs"));
+    }
+
+    /**
+     * 同一个JVM里的测试共用一份替身，第一次调用时启动，JVM退出时停止
+     */
+    public static synchronized LocalStandIns shared() throws IOException, SQLException {
+        if (shared == null) {
+            LocalStandIns standIns = start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    standIns.close();
+                } catch (IOException e) {
+                    // JVM正在退出，忽略
+                }
+            }));
+            shared = standIns;
+        }
+        return shared;
+    }
+
+    /**
+     * 覆盖application.yaml里的数据源、redis和端口配置
+     */
+    public Map<String, Object> properties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        properties.put("management.server.port", -1);
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.url", JDBC_URL);
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.redis.host", "127.0.0.1");
+        properties.put("spring.redis.port", redisPort);
+        properties.put("spring.redis.password", "");
+        properties.put("spring.redis.lettuce.pool.max-active", 64);
+        properties.put("spring.redis.lettuce.pool.max-idle", 64);
+        properties.put("hmdp.image.root", imageRoot.toString());
+        // 所有请求都来自127.0.0.1，按ip限流会挡住登录压测
+        properties.put("hmdp.rate-limit.enabled", false);
+        properties.put("logging.level.com.hmdp", "info");
+        return properties;
+    }
+
+    /**
+     * 在替身上启动整个应用，配置以命令行参数传入，优先级高于application.yaml
+     *
+     * @param extra 额外的配置，和替身的配置同名时优先
+     */
+    public ConfigurableApplicationContext startApplication(Map<String, Object> extra) {
+        Map<String, Object> properties = properties();
+        properties.putAll(extra);
+        String[] overrides = properties.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(HmDianPingApplication.class).run(overrides);
+    }
+
+    @Override
+    public void close() throws IOException {
+        redisServer.stop();
+    }
+
+    private static void seedDatabase() throws IOException, SQLException {
+        String script;
+        try (InputStream in = new ClassPathResource("db/hmdp.sql").getInputStream()) {
+            script = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+        try (Connection connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            for (String sql : MySqlScript.toH2(script)) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
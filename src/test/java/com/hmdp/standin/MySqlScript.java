@@ -0,0 +1,128 @@
+package com.hmdp.standin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 把db/hmdp.sql（navicat导出的mysql脚本）转换成H2 MySQL模式能执行的语句：
+ * 去掉表选项、字符集、索引方法这些H2不认识的部分，并把mysql的反斜杠转义改写成标准sql字符串
+ */
+final class MySqlScript {
+
+    private static final Pattern[] REMOVALS = {
+            Pattern.compile("(?i)\\s+CHARACTER SET\\s*=?\\s*\\w+"),
+            Pattern.compile("(?i)\\s+COLLATE\\s*=?\\s*\\w+"),
+            Pattern.compile("(?i)\\s+USING BTREE"),
+            Pattern.compile("(?i)\\s+ZEROFILL"),
+            Pattern.compile("(?i)\\s+ENGINE\\s*=\\s*\\w+"),
+            Pattern.compile("(?i)\\s+ROW_FORMAT\\s*=\\s*\\w+"),
+            Pattern.compile("(?i)\\s+AUTO_INCREMENT\\s*=\\s*\\d+"),
+            Pattern.compile("(?i)\\s+COMMENT\\s*=\\s*'[^']*'"),
+    };
+
+    private MySqlScript() {
+    }
+
+    static List<String> toH2(String script) {
+        List<String> statements = new ArrayList<>();
+        for (String statement : split(script)) {
+            String sql = statement.trim();
+            if (sql.isEmpty() || sql.toUpperCase().startsWith("SET ")) {
+                continue;
+            }
+            if (sql.toUpperCase().startsWith("CREATE TABLE")) {
+                sql = convertDdl(sql);
+            }
+            statements.add(sql);
+        }
+        return statements;
+    }
+
+    private static String convertDdl(String sql) {
+        for (Pattern removal : REMOVALS) {
+            sql = removal.matcher(sql).replaceAll("");
+        }
+        // H2不接受0000-00-00这样的日期
+        sql = sql.replace("'0000-00-00 00:00:00'", "'1970-01-01 00:00:00'");
+        // H2的索引名在整个schema内唯一，加上表名前缀避免冲突
+        String table = sql.substring(sql.indexOf('`') + 1, sql.indexOf('`', sql.indexOf('`') + 1));
+        return sql.replaceAll("(?i)(INDEX|KEY) `(\\w+)`\\(", "$1 `" + table + "_$2`(");
+    }
+
+    /**
+     * 按分号拆分语句，跳过注释，字符串内的分号和转义字符原样处理
+     */
+    private static List<String> split(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        int n = script.length();
+        while (i < n) {
+            char c = script.charAt(i);
+            if (c == '-' && script.startsWith("--", i)) {
+                int end = script.indexOf('\n', i);
+                i = end < 0 ? n : end + 1;
+            } else if (c == '/' && script.startsWith("/*", i)) {
+                int end = script.indexOf("*/", i);
+                i = end < 0 ? n : end + 2;
+            } else if (c == '\'') {
+                i = appendString(script, i, current);
+            } else if (c == ';') {
+                statements.add(current.toString());
+                current.setLength(0);
+                i++;
+            } else {
+                current.append(c);
+                i++;
+            }
+        }
+        statements.add(current.toString());
+        return statements;
+    }
+
+    /**
+     * 读取一个mysql字符串字面量，输出为只用''转义单引号的标准写法，返回字面量结束后的位置
+     */
+    private static int appendString(String script, int start, StringBuilder out) {
+        out.append('\'');
+        int i = start + 1;
+        while (i < script.length()) {
+            char c = script.charAt(i);
+            if (c == '\\' && i + 1 < script.length()) {
+                char next = script.charAt(i + 1);
+                switch (next) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case '0':
+                        break;
+                    case '\'':
+                        out.append("''");
+                        break;
+                    default:
+                        out.append(next);
+                }
+                i += 2;
+            } else if (c == '\'') {
+                if (i + 1 < script.length() && script.charAt(i + 1) == '\'') {
+                    out.append("''");
+                    i += 2;
+                } else {
+                    out.append('\'');
+                    return i + 1;
+                }
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return i;
+    }
+}
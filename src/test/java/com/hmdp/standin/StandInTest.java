@@ -0,0 +1,20 @@
+package com.hmdp.standin;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * 在本地替身上启动整个应用的测试基类，所有子类共用同一个应用上下文和同一份替身
+ */
+@SpringBootTest
+public abstract class StandInTest {
+
+    @DynamicPropertySource
+    static void standIns(DynamicPropertyRegistry registry) throws IOException, SQLException {
+        LocalStandIns.shared().properties().forEach((name, value) -> registry.add(name, () -> value));
+    }
+}
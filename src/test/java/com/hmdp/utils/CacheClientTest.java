@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import com.hmdp.standin.StandInTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 缓存重建的互斥锁只能由加锁的一方释放
+ */
+class CacheClientTest extends StandInTest {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void unlockOnlyReleasesOwnLock() {
+        String key = "lock:test:cache-client";
+        String value = cacheClient.tryLock(key);
+        assertNotNull(value);
+        assertNull(cacheClient.tryLock(key));
+
+        // 锁过期后被别的实例获得，原来的持有者释放时不能删掉别人的锁
+        stringRedisTemplate.opsForValue().set(key, "other");
+        cacheClient.unlock(key, value);
+        assertEquals("other", stringRedisTemplate.opsForValue().get(key));
+
+        stringRedisTemplate.delete(key);
+        String again = cacheClient.tryLock(key);
+        cacheClient.unlock(key, again);
+        assertFalse(stringRedisTemplate.hasKey(key));
+    }
+}
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import com.hmdp.standin.StandInTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import static com.hmdp.utils.RedisConstants.IMAGE_REF_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按内容寻址的图片：相同内容只存一份，所有引用者都释放后才删除文件
+ */
+class ImageStorageTest extends StandInTest {
+
+    @Resource
+    private ImageStorage imageStorage;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void fileIsDeletedAfterEveryOwnerReleasesIt() throws IOException {
+        byte[] content = UUID.randomUUID().toString().getBytes();
+        String fileName = save(content, 1L);
+        assertEquals(fileName, save(content, 2L));
+        assertTrue(Files.exists(imageStorage.resolve(fileName)));
+
+        // 1.不是引用者，不能删除
+        assertFalse(imageStorage.delete(fileName, 3L));
+        // 2.第一个引用者释放，文件保留；重复释放不影响其它引用者
+        assertTrue(imageStorage.delete(fileName, 1L));
+        assertFalse(imageStorage.delete(fileName, 1L));
+        assertTrue(Files.exists(imageStorage.resolve(fileName)));
+        assertEquals(1L, stringRedisTemplate.opsForSet().size(IMAGE_REF_KEY + fileName));
+        // 3.最后一个引用者释放，文件和引用记录都删除
+        assertTrue(imageStorage.delete(fileName, 2L));
+        assertFalse(Files.exists(imageStorage.resolve(fileName)));
+        assertFalse(stringRedisTemplate.hasKey(IMAGE_REF_KEY + fileName));
+    }
+
+    @Test
+    void uploadAfterReleaseStoresTheFileAgain() throws IOException {
+        byte[] content = UUID.randomUUID().toString().getBytes();
+        String fileName = save(content, 1L);
+        assertTrue(imageStorage.delete(fileName, 1L));
+        assertFalse(Files.exists(imageStorage.resolve(fileName)));
+
+        assertEquals(fileName, save(content, 2L));
+        assertTrue(Files.exists(imageStorage.resolve(fileName)));
+        assertFalse(imageStorage.delete(fileName, 1L));
+    }
+
+    @Test
+    void invalidFileNameIsRejected() throws IOException {
+        assertFalse(imageStorage.delete("/../application.yaml", 1L));
+        assertFalse(imageStorage.delete("", 1L));
+    }
+
+    private String save(byte[] content, Long owner) throws IOException {
+        return imageStorage.save(new ByteArrayInputStream(content), content.length, "txt", owner);
+    }
+}
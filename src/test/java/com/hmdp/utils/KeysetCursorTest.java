@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class KeysetCursorTest {
+
+    @Test
+    void encodeThenDecodeKeepsSortValueAndId() {
+        KeysetCursor cursor = KeysetCursor.decode(new KeysetCursor(4500L, 12L).encode());
+        assertNotNull(cursor);
+        assertEquals(4500L, cursor.getSortValue());
+        assertEquals(12L, cursor.getId());
+    }
+
+    @Test
+    void negativeAndLargeValuesRoundTrip() {
+        KeysetCursor cursor = KeysetCursor.decode(new KeysetCursor(-1L, Long.MAX_VALUE).encode());
+        assertNotNull(cursor);
+        assertEquals(-1L, cursor.getSortValue());
+        assertEquals(Long.MAX_VALUE, cursor.getId());
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        String encoded = new KeysetCursor(Long.MAX_VALUE, Long.MAX_VALUE).encode();
+        assertFalse(encoded.matches(".*[+/=].*"), encoded);
+    }
+
+    @Test
+    void blankCursorDecodesToNull() {
+        assertNull(KeysetCursor.decode(null));
+        assertNull(KeysetCursor.decode(""));
+        assertNull(KeysetCursor.decode("  "));
+    }
+
+    @Test
+    void malformedCursorDecodesToNull() {
+        // 不是base64
+        assertNull(KeysetCursor.decode("!!!"));
+        // 没有分隔符、分隔符在开头、不是数字
+        assertNull(KeysetCursor.decode(encode("12")));
+        assertNull(KeysetCursor.decode(encode(":12")));
+        assertNull(KeysetCursor.decode(encode("a:12")));
+        assertNull(KeysetCursor.decode(encode("12:")));
+        assertNull(KeysetCursor.decode(encode("12:3:4")));
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.standin.StandInTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 响应式缓存客户端：互斥锁只能由加锁的一方释放，缓存穿透时数据库中不存在的数据缓存空值
+ */
+class ReactiveCacheClientTest extends StandInTest {
+
+    @Resource
+    private ReactiveCacheClient reactiveCacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void unlockOnlyReleasesOwnLock() {
+        String key = "lock:test:reactive-cache-client";
+        String value = reactiveCacheClient.tryLock(key).block();
+        assertNotNull(value);
+        assertNull(reactiveCacheClient.tryLock(key).block());
+
+        // 锁过期后被别的实例获得，原来的持有者释放时不能删掉别人的锁
+        stringRedisTemplate.opsForValue().set(key, "other");
+        reactiveCacheClient.unlock(key, value).block();
+        assertEquals("other", stringRedisTemplate.opsForValue().get(key));
+
+        stringRedisTemplate.delete(key);
+        String again = reactiveCacheClient.tryLock(key).block();
+        reactiveCacheClient.unlock(key, again).block();
+        assertFalse(stringRedisTemplate.hasKey(key));
+    }
+
+    @Test
+    void passThroughCachesMissingValues() {
+        String prefix = "cache:test:reactive:";
+        stringRedisTemplate.delete(Arrays.asList(prefix + 1, prefix + 2));
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            assertEquals(1L, reactiveCacheClient.queryWithPassThrough(prefix, 1L, Shop.class,
+                    id -> { loads.incrementAndGet(); return shop(id); }, 1L, TimeUnit.MINUTES).block().getId());
+            assertNull(reactiveCacheClient.queryWithPassThrough(prefix, 2L, Shop.class,
+                    id -> { loads.incrementAndGet(); return null; }, 1L, TimeUnit.MINUTES).block());
+        }
+        // 第二次都命中缓存，包括缓存的空值
+        assertEquals(2, loads.get());
+        assertEquals("", stringRedisTemplate.opsForValue().get(prefix + 2));
+    }
+
+    @Test
+    void batchPassThroughKeepsInputOrder() {
+        String prefix = "cache:test:reactive-batch:";
+        List<Long> ids = Arrays.asList(3L, 1L, 4L, 2L);
+        ids.forEach(id -> stringRedisTemplate.delete(prefix + id));
+        reactiveCacheClient.set(prefix + 1, shop(1L).setName("cached"), 1L, TimeUnit.MINUTES).block();
+        AtomicInteger loads = new AtomicInteger();
+
+        List<Shop> result = reactiveCacheClient.queryBatchWithPassThrough(prefix, ids, Shop.class, missIds -> {
+            loads.incrementAndGet();
+            Map<Long, Shop> map = new HashMap<>();
+            missIds.stream().filter(id -> id != 4L).forEach(id -> map.put(id, shop(id)));
+            return map;
+        }, 1L, TimeUnit.MINUTES).collectList().block();
+
+        // 4在数据库中也不存在，不返回，缓存空值
+        assertEquals(Arrays.asList("db3", "cached", "db2"), names(result));
+        assertEquals(1, loads.get());
+        assertEquals("", stringRedisTemplate.opsForValue().get(prefix + 4));
+        assertEquals(Collections.singletonList("cached"),
+                names(reactiveCacheClient.queryBatchWithPassThrough(prefix, Collections.singletonList(1L), Shop.class,
+                        missIds -> new HashMap<>(), 1L, TimeUnit.MINUTES).collectList().block()));
+    }
+
+    private static Shop shop(Long id) {
+        return new Shop().setId(id).setName("db" + id);
+    }
+
+    private static List<String> names(List<Shop> shops) {
+        return shops.stream().map(Shop::getName).collect(Collectors.toList());
+    }
+}
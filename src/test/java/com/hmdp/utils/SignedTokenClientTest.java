@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.standin.StandInTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_DENYLIST_EXPIRE_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_DENYLIST_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 登出黑名单在实例之间的同步，两个实例共用一个redis
+ */
+class SignedTokenClientTest extends StandInTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void revokedTokenIsRejectedByOtherInstancesAfterSync() {
+        SignedTokenClient a = newClient();
+        SignedTokenClient b = newClient();
+        String first = a.issue(user(1L));
+        String second = a.issue(user(2L));
+        assertNotNull(b.verify(first));
+
+        // 1.登出的实例立即生效，其它实例同步之后生效
+        a.revoke(first);
+        assertNull(a.verify(first));
+        assertNotNull(b.verify(first));
+        b.syncDenylist();
+        assertNull(b.verify(first));
+        assertNotNull(b.verify(second));
+
+        // 2.之后的登出按序号增量拉取
+        a.revoke(second);
+        b.syncDenylist();
+        assertNull(b.verify(second));
+
+        // 3.新启动的实例拉取全部记录
+        SignedTokenClient c = newClient();
+        c.init();
+        assertNull(c.verify(first));
+        assertNull(c.verify(second));
+    }
+
+    @Test
+    void expiredEntriesArePrunedFromRedis() {
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENYLIST_KEY, "expired:1", -1);
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENYLIST_EXPIRE_KEY, "expired:1", 1);
+        newClient().syncDenylist();
+
+        assertNull(stringRedisTemplate.opsForZSet().score(LOGIN_DENYLIST_KEY, "expired:1"));
+        assertNull(stringRedisTemplate.opsForZSet().score(LOGIN_DENYLIST_EXPIRE_KEY, "expired:1"));
+    }
+
+    @Test
+    void tamperedTokenIsRejected() {
+        SignedTokenClient client = newClient();
+        String token = client.issue(user(3L));
+        UserDTO verified = client.verify(token);
+        assertNotNull(verified);
+        assertEquals(3L, verified.getId());
+
+        String forged = client.issue(user(4L));
+        String tampered = forged.substring(0, forged.indexOf('.')) + token.substring(token.indexOf('.'));
+        assertNull(client.verify(tampered));
+        assertNull(client.verify("not-a-token"));
+    }
+
+    private SignedTokenClient newClient() {
+        return new SignedTokenClient(stringRedisTemplate, "signed", SECRET);
+    }
+
+    private static UserDTO user(Long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setNickName("user_" + id);
+        return user;
+    }
+}